@@ -0,0 +1,478 @@
+package net.buggy.components.list;
+
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.android.internal.util.Predicate;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Ordering;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Measures FactoryBasedAdapter operations on a JVM, with an observer standing in for RecyclerView.
+ * Runs with Robolectric, so the adapter uses the framework Handler and Looper and the support library
+ * classes of the build. Results posted to the main thread are applied before a run ends.
+ * <p>
+ * Skipped by default, run it with:
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests net.buggy.components.list.ListBenchmark</pre>
+ * Items are shuffled with a fixed seed and each result is the median of several runs
+ * after warmup, so results of different builds on the same machine can be compared.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ListBenchmark {
+
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 7;
+    private static final long SEED = 42;
+
+    private static final int MEMORY_ROWS = 1000000;
+    private static final int MAX_COMPACT_BYTES_PER_ROW = 24;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Predicate<Integer> EVEN_FILTER = new Predicate<Integer>() {
+        @Override
+        public boolean apply(Integer item) {
+            return (item % 2) == 0;
+        }
+    };
+
+    private static final Function<Integer, String> SEARCH_TEXT = new Function<Integer, String>() {
+        @Override
+        public String apply(Integer item) {
+            return item.toString();
+        }
+    };
+
+    @Before
+    public void checkEnabled() {
+        Assume.assumeTrue("Benchmark is enabled by -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void run() {
+        final List<Operation> operations = Arrays.asList(
+                new Operation("add") {
+                    @Override
+                    void run() {
+                        for (Integer item : items) {
+                            adapter.add(item);
+                        }
+                    }
+                },
+                new Operation("add sorted") {
+                    @Override
+                    void setUp() {
+                        adapter.setSorter(Ordering.<Integer>natural());
+                    }
+
+                    @Override
+                    void run() {
+                        for (Integer item : items) {
+                            adapter.add(item);
+                        }
+                    }
+                },
+                new Operation("add in batch") {
+                    @Override
+                    void run() {
+                        adapter.runBatch(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (Integer item : items) {
+                                    adapter.add(item);
+                                }
+                            }
+                        });
+                    }
+                },
+                new Operation("addAll") {
+                    @Override
+                    void run() {
+                        adapter.addAll(items);
+                    }
+                },
+                new Operation("addAll sorted") {
+                    @Override
+                    void setUp() {
+                        adapter.setSorter(Ordering.<Integer>natural());
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.addAll(items);
+                    }
+                },
+                new Operation("update") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        for (Integer item : items) {
+                            adapter.update(item);
+                        }
+                    }
+                },
+                new Operation("update sorted") {
+                    @Override
+                    void setUp() {
+                        adapter.setSorter(Ordering.<Integer>natural());
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        for (Integer item : items) {
+                            adapter.update(item);
+                        }
+                    }
+                },
+                new Operation("remove") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        for (Integer item : items) {
+                            adapter.remove(item);
+                        }
+                    }
+                },
+                new Operation("setFilter") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setFilter(EVEN_FILTER);
+                        adapter.setFilter(null);
+                    }
+                },
+                new Operation("setFilterAsync") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setFilterAsync(EVEN_FILTER);
+                        // otherwise the second call cancels the first one
+                        ShadowLooper.runUiThreadTasks();
+                        adapter.setFilterAsync(null);
+                    }
+                },
+                new Operation("setSorter") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setSorter(Ordering.<Integer>natural());
+                    }
+                },
+                new Operation("setSorterAsync") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setSorterAsync(Functions.<Integer>identity());
+                    }
+                },
+                new Operation("setItems") {
+                    @Override
+                    void setUp() {
+                        // diffing cost grows with the number of differences, so only 1% of items is new
+                        adapter.addAll(items.subList(0, items.size() - items.size() / 100));
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setItems(items);
+                    }
+                },
+                new Operation("search short") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                        adapter.setSearchTextFunction(SEARCH_TEXT);
+                    }
+
+                    @Override
+                    void run() {
+                        // the first keystrokes, answered by unigram and bigram postings
+                        adapter.setSearchQuery("4");
+                        adapter.setSearchQuery("42");
+                    }
+                },
+                new Operation("search") {
+                    @Override
+                    void setUp() {
+                        adapter.addAll(items);
+                        adapter.setSearchTextFunction(SEARCH_TEXT);
+                    }
+
+                    @Override
+                    void run() {
+                        adapter.setSearchQuery("421");
+                        adapter.setSearchQuery("4217");
+                    }
+                },
+                new Operation("select") {
+                    @Override
+                    void setUp() {
+                        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.MULTI);
+                        adapter.addAll(items);
+                    }
+
+                    @Override
+                    void run() {
+                        for (int i = 0; i < items.size(); i += 2) {
+                            adapter.selectItem(items.get(i));
+                        }
+
+                        adapter.getSelectedItems();
+                    }
+                });
+
+        System.out.println(String.format(Locale.US, "%-16s %8s %12s %12s", "operation", "rows", "median ms", "events"));
+
+        for (int size : SIZES) {
+            for (Operation operation : operations) {
+                measure(operation, size);
+            }
+        }
+    }
+
+    // Lookups of the search index alone, queries shorter than a trigram scan the stored texts
+    @Test
+    public void indexSearch() {
+        System.out.println(String.format(Locale.US, "%-16s %8s %12s %12s", "query", "rows", "median ms", "matches"));
+
+        for (int size : SIZES) {
+            final TextIndex<IndexedItem> index = new TextIndex<>();
+            for (Integer item : createItems(size)) {
+                // base 36 texts, so that short queries match only a part of them
+                index.add(new IndexedItem(), Integer.toString(item * 7919, 36));
+            }
+
+            for (String query : new String[]{"q", "qz", "qzx"}) {
+                final long[] durations = new long[MEASURED_RUNS];
+                int matches = 0;
+                for (int i = -WARMUP_RUNS; i < MEASURED_RUNS; i++) {
+                    final long start = System.nanoTime();
+                    matches = index.search(query).cardinality();
+                    if (i >= 0) {
+                        durations[i] = System.nanoTime() - start;
+                    }
+                }
+                Arrays.sort(durations);
+
+                System.out.println(String.format(Locale.US, "%-16s %8d %12.3f %12d",
+                        "\"" + query + "\"", size, durations[MEASURED_RUNS / 2] / 1000000.0, matches));
+            }
+        }
+    }
+
+    // Memory held by the adapter per row, items themselves are allocated beforehand and not counted
+    @Test
+    public void rowMemory() {
+        final List<Integer> items = createItems(MEMORY_ROWS);
+
+        System.out.println(String.format(Locale.US, "%-16s %8s %12s", "storage", "rows", "bytes/row"));
+
+        for (boolean compact : new boolean[]{false, true}) {
+            final long before = usedMemory();
+
+            final FactoryBasedAdapter<Integer> adapter = new FactoryBasedAdapter<>(new BenchmarkCellFactory());
+            adapter.setCompactStorage(compact);
+            adapter.addAll(items);
+
+            final double bytesPerRow = (usedMemory() - before) / (double) MEMORY_ROWS;
+            Assert.assertEquals(MEMORY_ROWS, adapter.getItemCount());
+
+            System.out.println(String.format(Locale.US, "%-16s %8d %12.1f",
+                    compact ? "compact" : "default", MEMORY_ROWS, bytesPerRow));
+
+            if (compact) {
+                Assert.assertTrue("Compact storage takes " + bytesPerRow + " bytes per row",
+                        bytesPerRow < MAX_COMPACT_BYTES_PER_ROW);
+            }
+        }
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(Operation operation, int size) {
+        final List<Integer> items = createItems(size);
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runOnce(operation, items);
+        }
+
+        final long[] durations = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            durations[i] = runOnce(operation, items);
+        }
+        Arrays.sort(durations);
+
+        System.out.println(String.format(Locale.US, "%-16s %8d %12.3f %12d",
+                operation.name,
+                size,
+                durations[MEASURED_RUNS / 2] / 1000000.0,
+                operation.observer.events));
+    }
+
+    private static long runOnce(Operation operation, List<Integer> items) {
+        operation.items = items;
+        operation.adapter = new FactoryBasedAdapter<>(new BenchmarkCellFactory());
+        operation.adapter.setDiffExecutor(DIRECT_EXECUTOR);
+        operation.setUp();
+
+        operation.observer = new CountingObserver();
+        operation.adapter.registerAdapterDataObserver(operation.observer);
+
+        final long start = System.nanoTime();
+        operation.run();
+        // results of asynchronous operations, computed by the direct executor
+        ShadowLooper.runUiThreadTasks();
+        final long duration = System.nanoTime() - start;
+
+        Assert.assertTrue(operation.name + " didn't notify the observer", operation.observer.events > 0);
+
+        return duration;
+    }
+
+    private static List<Integer> createItems(int size) {
+        final List<Integer> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(i);
+        }
+
+        Collections.shuffle(items, new Random(SEED));
+
+        return items;
+    }
+
+    private abstract static class Operation {
+        private final String name;
+
+        FactoryBasedAdapter<Integer> adapter;
+        List<Integer> items;
+        CountingObserver observer;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        void setUp() {
+        }
+
+        abstract void run();
+    }
+
+    private static class CountingObserver extends RecyclerView.AdapterDataObserver {
+        private long events = 0;
+
+        @Override
+        public void onChanged() {
+            events++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            events++;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events++;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events++;
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            events++;
+        }
+    }
+
+    private static class IndexedItem implements TextIndex.Indexed {
+        private int textSlot = -1;
+
+        @Override
+        public int getTextSlot() {
+            return textSlot;
+        }
+
+        @Override
+        public void setTextSlot(int slot) {
+            this.textSlot = slot;
+        }
+    }
+
+    private static class BenchmarkCellFactory extends CellFactory<Integer, View> {
+        @Override
+        public View createEmptyCell(Context context, ViewGroup parent) {
+            throw new UnsupportedOperationException("Cells are not created in benchmarks");
+        }
+
+        @Override
+        public void fillCell(Cell<Integer> cell, View view, CellContext<Integer> cellContext, ChangeListener<Integer> listener) {
+            throw new UnsupportedOperationException("Cells are not bound in benchmarks");
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package net.buggy.components.list;
 
+import android.support.v4.util.ArrayMap;
+
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Data and state of an item, which a {@link CellFactory} fills a view from.
+ * <p>
+ * Cells are not thread safe. Like the views they are shown in, they must be accessed on the main thread only,
+ * this includes the maps of {@link #getPersistentState()} and {@link #getViewState()}.
+ */
 public class Cell<T> {
 
     private T data;
     private boolean selected = false;
     private boolean enabled = true;
-    private final Map<Object, Object> persistentState = new ConcurrentHashMap<>();
-    private final Map<Object, Object> viewState = new ConcurrentHashMap<>();
+    // most cells never store any state, so maps are created on first access
+    private Map<Object, Object> persistentState;
+    private Map<Object, Object> viewState;
 
     public Cell(T data) {
         this.data = data;
@@ -40,14 +48,24 @@ public class Cell<T> {
     }
 
     public Map<Object, Object> getPersistentState() {
+        if (persistentState == null) {
+            persistentState = new ArrayMap<>(2);
+        }
+
         return persistentState;
     }
 
     public Map<Object, Object> getViewState() {
+        if (viewState == null) {
+            viewState = new ArrayMap<>(2);
+        }
+
         return viewState;
     }
 
     public void resetViewState() {
-        viewState.clear();
+        if ((viewState != null) && !viewState.isEmpty()) {
+            viewState.clear();
+        }
     }
 }
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.Set;
+
 public abstract class CellFactory<T, V extends View> {
 
     public abstract V createEmptyCell(Context context, ViewGroup parent);
@@ -14,6 +16,24 @@ public abstract class CellFactory<T, V extends View> {
             CellContext<T> cellContext,
             ChangeListener<T> listener);
 
+    // Called instead of fillCell() when only the listed aspects of an already filled cell changed.
+    // Returns false if the cell should be filled from scratch.
+    public boolean updateCell(
+            Cell<T> cell,
+            V view,
+            CellContext<T> cellContext,
+            Set<FactoryBasedAdapter.ChangeType> changes,
+            ChangeListener<T> listener) {
+
+        return false;
+    }
+
+    // Factories with equal keys create interchangeable cells and share a view type.
+    // Override it in factories, which are created repeatedly with the same configuration.
+    public Object getViewTypeKey() {
+        return this;
+    }
+
     public void clearCell(Cell<T> cell, V itemView) {
 
     }
@@ -0,0 +1,296 @@
+package net.buggy.components.list;
+
+
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects cell creation, binding and recycling timings per view type and factory class
+ * of a {@link FactoryBasedAdapter}, together with counts of inserted, removed and moved items
+ * and of changed items by {@link FactoryBasedAdapter.ChangeType}.
+ * <p>
+ * Values are recorded on the main thread, {@link #snapshot()} and {@link #reset()} can be called
+ * from any thread.
+ */
+public class CellMetrics {
+
+    // upper bounds of fill time histogram buckets, the last bucket holds everything slower
+    private static final long[] FILL_HISTOGRAM_BOUNDS_MICROS = {250, 500, 1000, 2000, 4000, 8000, 16000};
+
+    // factories of different classes can share a view type by their view type keys
+    private final SparseArray<List<FactoryStats>> factoryStats = new SparseArray<>();
+    private final long[] changedItems = new long[FactoryBasedAdapter.ChangeType.values().length];
+    private long reboundItems = 0;
+    private long insertedItems = 0;
+    private long removedItems = 0;
+    private long movedItems = 0;
+    private long datasetChanges = 0;
+
+    final RecyclerView.AdapterDataObserver notificationsObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            recordChanged(null, itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            recordChanged(payload, itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            synchronized (CellMetrics.this) {
+                insertedItems += itemCount;
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            synchronized (CellMetrics.this) {
+                removedItems += itemCount;
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            synchronized (CellMetrics.this) {
+                movedItems += itemCount;
+            }
+        }
+
+        @Override
+        public void onChanged() {
+            synchronized (CellMetrics.this) {
+                datasetChanges++;
+            }
+        }
+    };
+
+    public synchronized Snapshot snapshot() {
+        final List<FactoryStats> factories = new ArrayList<>(factoryStats.size());
+        for (int i = 0; i < factoryStats.size(); i++) {
+            for (FactoryStats stats : factoryStats.valueAt(i)) {
+                factories.add(stats.copy());
+            }
+        }
+
+        return new Snapshot(factories, changedItems.clone(), reboundItems,
+                insertedItems, removedItems, movedItems, datasetChanges);
+    }
+
+    public synchronized void reset() {
+        factoryStats.clear();
+        Arrays.fill(changedItems, 0);
+        reboundItems = 0;
+        insertedItems = 0;
+        removedItems = 0;
+        movedItems = 0;
+        datasetChanges = 0;
+    }
+
+    synchronized void recordCreate(int viewType, CellFactory<?, ? extends View> factory, long nanos) {
+        final FactoryStats stats = getStats(viewType, factory);
+
+        stats.createCount++;
+        stats.createNanos += nanos;
+        stats.createMaxNanos = Math.max(stats.createMaxNanos, nanos);
+    }
+
+    // upper bounds of the buckets of FactoryStats.getFillHistogram(), in microseconds
+    public static long[] getFillHistogramBoundsMicros() {
+        return FILL_HISTOGRAM_BOUNDS_MICROS.clone();
+    }
+
+    synchronized void recordFill(int viewType, CellFactory<?, ? extends View> factory, long nanos) {
+        final FactoryStats stats = getStats(viewType, factory);
+
+        stats.fillCount++;
+        stats.fillNanos += nanos;
+
+        final long micros = nanos / 1000;
+        int bucket = 0;
+        while ((bucket < FILL_HISTOGRAM_BOUNDS_MICROS.length) && (micros >= FILL_HISTOGRAM_BOUNDS_MICROS[bucket])) {
+            bucket++;
+        }
+        stats.fillHistogram[bucket]++;
+    }
+
+    synchronized void recordUpdate(int viewType, CellFactory<?, ? extends View> factory, long nanos) {
+        final FactoryStats stats = getStats(viewType, factory);
+
+        stats.updateCount++;
+        stats.updateNanos += nanos;
+    }
+
+    synchronized void recordClear(int viewType, CellFactory<?, ? extends View> factory) {
+        getStats(viewType, factory).clearCount++;
+    }
+
+    private synchronized void recordChanged(Object payload, int itemCount) {
+        if (payload instanceof FactoryBasedAdapter.ChangeType) {
+            changedItems[((FactoryBasedAdapter.ChangeType) payload).ordinal()] += itemCount;
+        } else {
+            reboundItems += itemCount;
+        }
+    }
+
+    private FactoryStats getStats(int viewType, CellFactory<?, ? extends View> factory) {
+        List<FactoryStats> viewTypeStats = factoryStats.get(viewType);
+        if (viewTypeStats == null) {
+            viewTypeStats = new ArrayList<>(1);
+            factoryStats.put(viewType, viewTypeStats);
+        }
+
+        final Class<?> factoryClass = factory.getClass();
+        // index based loop, this is called for every bound cell
+        for (int i = 0; i < viewTypeStats.size(); i++) {
+            final FactoryStats stats = viewTypeStats.get(i);
+            if (stats.factoryClass == factoryClass) {
+                return stats;
+            }
+        }
+
+        final FactoryStats stats = new FactoryStats(viewType, factoryClass);
+        viewTypeStats.add(stats);
+
+        return stats;
+    }
+
+    public static class Snapshot {
+        private final List<FactoryStats> factories;
+        private final long[] changedItems;
+        private final long reboundItems;
+        private final long insertedItems;
+        private final long removedItems;
+        private final long movedItems;
+        private final long datasetChanges;
+
+        private Snapshot(List<FactoryStats> factories, long[] changedItems, long reboundItems,
+                         long insertedItems, long removedItems, long movedItems, long datasetChanges) {
+            this.factories = Collections.unmodifiableList(factories);
+            this.changedItems = changedItems;
+            this.reboundItems = reboundItems;
+            this.insertedItems = insertedItems;
+            this.removedItems = removedItems;
+            this.movedItems = movedItems;
+            this.datasetChanges = datasetChanges;
+        }
+
+        public List<FactoryStats> getFactories() {
+            return factories;
+        }
+
+        public long getChangedItems(FactoryBasedAdapter.ChangeType changeType) {
+            return changedItems[changeType.ordinal()];
+        }
+
+        // items notified as changed without a ChangeType, which are bound from scratch
+        public long getReboundItems() {
+            return reboundItems;
+        }
+
+        public long getInsertedItems() {
+            return insertedItems;
+        }
+
+        public long getRemovedItems() {
+            return removedItems;
+        }
+
+        public long getMovedItems() {
+            return movedItems;
+        }
+
+        // notifyDataSetChanged() calls, which rebind all shown cells
+        public long getDatasetChanges() {
+            return datasetChanges;
+        }
+    }
+
+    public static class FactoryStats {
+        private final int viewType;
+        private final Class<?> factoryClass;
+
+        private long createCount;
+        private long createNanos;
+        private long createMaxNanos;
+        private long fillCount;
+        private long fillNanos;
+        private long[] fillHistogram = new long[FILL_HISTOGRAM_BOUNDS_MICROS.length + 1];
+        private long updateCount;
+        private long updateNanos;
+        private long clearCount;
+
+        private FactoryStats(int viewType, Class<?> factoryClass) {
+            this.viewType = viewType;
+            this.factoryClass = factoryClass;
+        }
+
+        private FactoryStats copy() {
+            final FactoryStats copy = new FactoryStats(viewType, factoryClass);
+            copy.createCount = createCount;
+            copy.createNanos = createNanos;
+            copy.createMaxNanos = createMaxNanos;
+            copy.fillCount = fillCount;
+            copy.fillNanos = fillNanos;
+            copy.fillHistogram = fillHistogram.clone();
+            copy.updateCount = updateCount;
+            copy.updateNanos = updateNanos;
+            copy.clearCount = clearCount;
+
+            return copy;
+        }
+
+        public int getViewType() {
+            return viewType;
+        }
+
+        public String getFactoryName() {
+            return factoryClass.getName();
+        }
+
+        public long getCreateCount() {
+            return createCount;
+        }
+
+        public long getCreateNanos() {
+            return createNanos;
+        }
+
+        public long getCreateMaxNanos() {
+            return createMaxNanos;
+        }
+
+        public long getFillCount() {
+            return fillCount;
+        }
+
+        public long getFillNanos() {
+            return fillNanos;
+        }
+
+        // counts of fills per bucket of getFillHistogramBoundsMicros()
+        public long[] getFillHistogram() {
+            return fillHistogram.clone();
+        }
+
+        // partial rebinds, handled by CellFactory.updateCell()
+        public long getUpdateCount() {
+            return updateCount;
+        }
+
+        public long getUpdateNanos() {
+            return updateNanos;
+        }
+
+        public long getClearCount() {
+            return clearCount;
+        }
+    }
+}
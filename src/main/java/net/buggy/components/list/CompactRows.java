@@ -0,0 +1,230 @@
+package net.buggy.components.list;
+
+
+import java.util.Arrays;
+
+/**
+ * Rows stored as parallel arrays of data, ids, flags and custom factory indices,
+ * about 14 bytes per row, instead of an object per row.
+ * Custom factories are kept in a small table and shared by reference counting,
+ * at most {@link #MAX_FACTORIES} different ones can be used at the same time.
+ */
+class CompactRows<T, F> {
+
+    static final int MAX_FACTORIES = 255;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final byte FLAG_SELECTED = 1;
+    private static final byte FLAG_ENABLED = 2;
+
+    private Object[] data = new Object[MIN_CAPACITY];
+    private long[] ids = new long[MIN_CAPACITY];
+    private byte[] flags = new byte[MIN_CAPACITY];
+    // 0 means no custom factory, other values are indices in factories plus one
+    private byte[] factoryIndices = new byte[MIN_CAPACITY];
+    private int size = 0;
+    private int selectedCount = 0;
+
+    private Object[] factories = new Object[4];
+    private int[] factoryRefCounts = new int[4];
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index);
+
+        return (T) data[index];
+    }
+
+    public void set(int index, T item) {
+        checkIndex(index);
+
+        data[index] = item;
+    }
+
+    public long getId(int index) {
+        checkIndex(index);
+
+        return ids[index];
+    }
+
+    public void add(int index, T item, long id) {
+        if ((index < 0) || (index > size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        ensureCapacity(size + 1);
+
+        final int movedCount = size - index;
+        if (movedCount > 0) {
+            System.arraycopy(data, index, data, index + 1, movedCount);
+            System.arraycopy(ids, index, ids, index + 1, movedCount);
+            System.arraycopy(flags, index, flags, index + 1, movedCount);
+            System.arraycopy(factoryIndices, index, factoryIndices, index + 1, movedCount);
+        }
+
+        data[index] = item;
+        ids[index] = id;
+        flags[index] = FLAG_ENABLED;
+        factoryIndices[index] = 0;
+        size++;
+    }
+
+    public void remove(int index) {
+        checkIndex(index);
+
+        if ((flags[index] & FLAG_SELECTED) != 0) {
+            selectedCount--;
+        }
+        releaseFactory(factoryIndices[index]);
+
+        final int movedCount = size - index - 1;
+        if (movedCount > 0) {
+            System.arraycopy(data, index + 1, data, index, movedCount);
+            System.arraycopy(ids, index + 1, ids, index, movedCount);
+            System.arraycopy(flags, index + 1, flags, index, movedCount);
+            System.arraycopy(factoryIndices, index + 1, factoryIndices, index, movedCount);
+        }
+
+        size--;
+        data[size] = null;
+    }
+
+    public void clear() {
+        data = new Object[MIN_CAPACITY];
+        ids = new long[MIN_CAPACITY];
+        flags = new byte[MIN_CAPACITY];
+        factoryIndices = new byte[MIN_CAPACITY];
+        size = 0;
+        selectedCount = 0;
+
+        Arrays.fill(factories, null);
+        Arrays.fill(factoryRefCounts, 0);
+    }
+
+    // Bulk additions reserve exactly the space they need, so a list filled at once has no spare capacity
+    public void ensureCapacity(int capacity) {
+        if (capacity <= data.length) {
+            return;
+        }
+
+        final int newCapacity = Math.max(capacity, data.length + (data.length >> 1));
+        data = Arrays.copyOf(data, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        factoryIndices = Arrays.copyOf(factoryIndices, newCapacity);
+    }
+
+    public boolean isSelected(int index) {
+        checkIndex(index);
+
+        return (flags[index] & FLAG_SELECTED) != 0;
+    }
+
+    public void setSelected(int index, boolean selected) {
+        if (isSelected(index) == selected) {
+            return;
+        }
+
+        setFlag(index, FLAG_SELECTED, selected);
+        selectedCount += selected ? 1 : -1;
+    }
+
+    public boolean isEnabled(int index) {
+        checkIndex(index);
+
+        return (flags[index] & FLAG_ENABLED) != 0;
+    }
+
+    public void setEnabled(int index, boolean enabled) {
+        checkIndex(index);
+
+        setFlag(index, FLAG_ENABLED, enabled);
+    }
+
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    public F getFactory(int index) {
+        checkIndex(index);
+
+        final int factoryIndex = factoryIndices[index] & 0xFF;
+
+        return (factoryIndex == 0) ? null : (F) factories[factoryIndex - 1];
+    }
+
+    public void setFactory(int index, F factory) {
+        checkIndex(index);
+
+        final byte newFactoryIndex = acquireFactory(factory);
+        releaseFactory(factoryIndices[index]);
+        factoryIndices[index] = newFactoryIndex;
+    }
+
+    private byte acquireFactory(F factory) {
+        if (factory == null) {
+            return 0;
+        }
+
+        int freeIndex = -1;
+        for (int i = 0; i < factories.length; i++) {
+            if (factories[i] == factory) {
+                factoryRefCounts[i]++;
+                return (byte) (i + 1);
+            }
+
+            if ((factories[i] == null) && (freeIndex < 0)) {
+                freeIndex = i;
+            }
+        }
+
+        if (freeIndex < 0) {
+            if (factories.length == MAX_FACTORIES) {
+                throw new IllegalStateException("Compact storage supports at most "
+                        + MAX_FACTORIES + " custom factories");
+            }
+
+            freeIndex = factories.length;
+            final int newLength = Math.min(factories.length * 2, MAX_FACTORIES);
+            factories = Arrays.copyOf(factories, newLength);
+            factoryRefCounts = Arrays.copyOf(factoryRefCounts, newLength);
+        }
+
+        factories[freeIndex] = factory;
+        factoryRefCounts[freeIndex] = 1;
+
+        return (byte) (freeIndex + 1);
+    }
+
+    private void releaseFactory(byte factoryIndex) {
+        final int index = (factoryIndex & 0xFF) - 1;
+        if (index < 0) {
+            return;
+        }
+
+        factoryRefCounts[index]--;
+        if (factoryRefCounts[index] == 0) {
+            factories[index] = null;
+        }
+    }
+
+    private void setFlag(int index, byte flag, boolean value) {
+        flags[index] = (byte) (value ? (flags[index] | flag) : (flags[index] & ~flag));
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+}
@@ -1,25 +1,67 @@
 package net.buggy.components.list;
 
 
+import android.annotation.TargetApi;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 
 import com.android.internal.util.Predicate;
+import com.google.common.base.Equivalence;
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapter, which creates and fills cells of the items with {@link CellFactory CellFactories}.
+ * <p>
+ * Threading: methods changing the items, their state or which of them are shown, like {@link #add(Object)},
+ * {@link #selectItem(Object)} or {@link #setFilter(Predicate)}, can be called from any thread. From other threads
+ * they are posted to the main thread and applied there in the order of the calls. A call on the main thread
+ * first applies the calls still posted from other threads. Everything else must be called on the main thread
+ * and throws {@link IllegalStateException} otherwise: methods returning a result, like {@link #getItemCount()}
+ * or {@link #getSelectedItems()}, position based calls and configuration.
+ */
 public class FactoryBasedAdapter<T>
         extends RecyclerView.Adapter<FactoryBasedAdapter.ViewHolder> {
 
@@ -27,27 +69,121 @@ public class FactoryBasedAdapter<T>
 
     public enum ChangeType {SELECTION, DATA, ENABLE, REDRAW}
 
-    private final static int MAIN_VIEW_TYPE = 0;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_MAX_PAGES = 20;
 
-    private final CellFactory<T, View> defaultFactory;
-    private final BiMap<CellFactory<T, View>, Integer> customFactories = Maps.synchronizedBiMap(
-            HashBiMap.<CellFactory<T, View>, Integer>create());
-    private AtomicInteger customFactoryCounter = new AtomicInteger();
+    private static final long ID_PROBE_STEP = 0x9E3779B97F4A7C15L;
 
-    private final List<Row<T>> rows = new CopyOnWriteArrayList<>();
+    private static final int NO_VIEW_TYPE = -1;
 
-    private volatile List<Row<T>> shownRows = rows;
+    // RecycledViewPool keeps this many cells per view type, unless configured otherwise
+    private static final int DEFAULT_MAX_RECYCLED_VIEWS = 5;
+    private static final long PREWARM_BUDGET_MILLIS = 4;
+
+    private final CellFactory<T, View> defaultFactory;
+    private ViewTypeRegistry viewTypeRegistry = new ViewTypeRegistry();
+    private boolean viewTypeRegistryShared = false;
+    // view types are acquired from the registry on first use
+    private int defaultViewType = NO_VIEW_TYPE;
+    private final Map<CellFactory<T, View>, Integer> factoryViewTypes = new IdentityHashMap<>();
+    private final List<RecyclerView> attachedRecyclerViews = new ArrayList<>();
+
+    private final FilteredList<Row<T>> rows = new FilteredList<>();
+
+    private final ListMultimap<Object, Row<T>> rowsIndex = Multimaps.synchronizedListMultimap(
+            ArrayListMultimap.<Object, Row<T>>create());
+    private Function<T, ?> keyFunction;
+    private Function<T, ?> sectionFunction;
+    private int sectionGeneration = 1;
+    private boolean redrawNeighbours = true;
+    private final LongIdMap<Row<T>> rowsById = new LongIdMap<>();
+    private Function<T, String> searchTextFunction;
+    private final TextIndex<Row<T>> searchIndex = new TextIndex<>();
 
     private final List<DataListener<T>> dataListeners = new CopyOnWriteArrayList<>();
     private final List<SelectionListener<T>> selectionListeners = new CopyOnWriteArrayList<>();
+
+    // events for batch listeners, collected while batching or during bulk operations
+    private int heldEventsDepth = 0;
+    private final List<PendingDataEvent<T>> pendingDataEvents = new ArrayList<>();
+    private final Set<T> pendingSelected = new LinkedHashSet<>();
+    private final Set<T> pendingDeselected = new LinkedHashSet<>();
     private final List<ClickListener<T>> clickListeners = new CopyOnWriteArrayList<>();
     private final List<ClickListener<T>> longClickListeners = new CopyOnWriteArrayList<>();
     private Predicate<T> filter = null;
+    private final com.google.common.base.Predicate<Row<T>> rowFilter = new com.google.common.base.Predicate<Row<T>>() {
+        @Override
+        public boolean apply(Row<T> row) {
+            return isMatching(row);
+        }
+    };
 
     private SelectionMode selectionMode = SelectionMode.NONE;
+    private final SelectionModel<Row<T>> selection = new SelectionModel<>();
 
     private Comparator<T> sorter;
 
+    private int batchDepth = 0;
+    private List<Row<T>> batchShownRows;
+    private final Map<Row<T>, ChangeType> batchChanges = new HashMap<>();
+
+    private final NotificationDispatcher dispatcher = new NotificationDispatcher(this);
+    private boolean coalesceNotifications = false;
+    private boolean frameHoldPending = false;
+    private final Runnable frameFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushFrameHold();
+        }
+    };
+
+    private CellMetrics metrics;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // calls from other threads, queued so that calls on the main thread can apply them first
+    private final Queue<Runnable> postedActions = new ConcurrentLinkedQueue<>();
+    private final Runnable postedActionsRunner = new Runnable() {
+        @Override
+        public void run() {
+            runPostedActions();
+        }
+    };
+    private int runningActionsDepth = 0;
+    private Executor diffExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private int modificationCount = 0;
+    private int setItemsGeneration = 0;
+    private final AtomicInteger filterGeneration = new AtomicInteger();
+    private final AtomicInteger sortGeneration = new AtomicInteger();
+
+    private static final int FILTER_CHUNK_SIZE = 256;
+    private static final int MAX_FILTER_STACK_SIZE = 8;
+    private static final int SEARCH_FULL_UPDATE_RATIO = 4;
+    // changed ranges of shown rows are notified one by one only while there is at most one per so many rows,
+    // as RecyclerView processes pending ranges in quadratic time
+    private static final int RANGES_FULL_UPDATE_RATIO = 16;
+    // asynchronous sorting, filtering and diffing start over when the items change meanwhile,
+    // after so many restarts they are done on the main thread instead
+    private static final int MAX_ASYNC_RESTARTS = 3;
+
+    // results of the filters replaced by narrowFilter(), valid until the items are modified otherwise
+    private final Deque<FilterState<T>> filterStack = new ArrayDeque<>();
+    private int filterStackModificationCount = -1;
+
+    private DataSource<T> dataSource;
+    private CellFactory<T, View> placeholderFactory;
+    // rows of the positions, which pages are not loaded yet, each keeps its own cell state
+    private final SparseArray<Row<T>> placeholderRows = new SparseArray<>();
+    private int dataSourceCount = 0;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private Map<Integer, List<Row<T>>> pages = createPagesCache(DEFAULT_MAX_PAGES);
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private int dataSourceGeneration = 0;
+
+    // null, unless compact storage is enabled
+    private CompactRows<T, CellFactory<T, View>> compactRows;
+    // rows of compact storage, which are bound to view holders
+    private final List<CompactRow<T>> boundCompactRows = new ArrayList<>();
+
     public <V extends View> FactoryBasedAdapter(CellFactory<T, V> defaultFactory) {
         this.defaultFactory = (CellFactory<T, View>) defaultFactory;
 
@@ -55,77 +191,416 @@ public class FactoryBasedAdapter<T>
     }
 
     public void setSorter(final Comparator<T> sorter) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applySorter(sorter);
+            }
+        });
+    }
+
+    private void applySorter(Comparator<T> sorter) {
+        checkNotPaged();
+        checkNotCompact();
+        holdUntilFrame();
+
+        sortGeneration.incrementAndGet();
+
         this.sorter = sorter;
 
         if (sorter != null) {
-            Collections.sort(rows, new Comparator<Row<T>>() {
-                @Override
-                public int compare(Row<T> o1, Row<T> o2) {
-                    return sorter.compare(o1.getData(), o2.getData());
-                }
-            });
+            rows.sort(createRowComparator(sorter));
+            modificationCount++;
+
+            if (isBatching()) {
+                return;
+            }
+
+            final int shownCount = getShownCount();
+            if (shownCount > 0) {
+                dispatcher.onChanged(0, shownCount, null);
+            }
+        }
+    }
+
+    public <K extends Comparable<? super K>> void setSorterAsync(Function<T, K> sortKeyFunction) {
+        setSorterAsync(sortKeyFunction, Ordering.<K>natural());
+    }
+
+    // Sorts by keys extracted once per item on the diff executor, large lists are sorted in parallel chunks.
+    // Small reorders are shown as moves, bigger ones as a change of all shown rows.
+    public <K> void setSorterAsync(final Function<T, K> sortKeyFunction, final Comparator<? super K> keyComparator) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applySorterAsync(sortKeyFunction, keyComparator, 0);
+            }
+        });
+    }
+
+    private <K> void applySorterAsync(
+            final Function<T, K> sortKeyFunction,
+            final Comparator<? super K> keyComparator,
+            final int restarts) {
+
+        checkNotPaged();
+        checkNotCompact();
+
+        final Comparator<T> sorter = Ordering.from(keyComparator).onResultOf(sortKeyFunction);
+        if (restarts >= MAX_ASYNC_RESTARTS) {
+            applySorter(sorter);
+            return;
+        }
+
+        final int generation = sortGeneration.incrementAndGet();
+        final int expectedModificationCount = modificationCount;
+
+        final List<Row<T>> snapshotRows = rows.toList();
+        final boolean[] snapshotShown = rows.getShownFlags();
+        final List<T> snapshotItems = new ArrayList<>(snapshotRows.size());
+        for (Row<T> row : snapshotRows) {
+            snapshotItems.add(row.getData());
+        }
+
+        final ParallelSorter<T, K> parallelSorter = new ParallelSorter<>(
+                sortKeyFunction, keyComparator, diffExecutor);
+
+        parallelSorter.sort(snapshotItems, snapshotShown, new ParallelSorter.Callback() {
+            @Override
+            public boolean isCancelled() {
+                return generation != sortGeneration.get();
+            }
+
+            @Override
+            public void onSorted(final ParallelSorter.Result result) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != sortGeneration.get()) {
+                            return;
+                        }
+
+                        if (expectedModificationCount != modificationCount) {
+                            applySorterAsync(sortKeyFunction, keyComparator, restarts + 1);
+                            return;
+                        }
+
+                        final List<Row<T>> sortedRows = new ArrayList<>(result.order.length);
+                        for (int index : result.order) {
+                            sortedRows.add(snapshotRows.get(index));
+                        }
+
+                        publishSort(sorter, sortedRows, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void publishSort(Comparator<T> sorter, List<Row<T>> sortedRows, ParallelSorter.Result result) {
+        holdUntilFrame();
+
+        this.sorter = sorter;
+
+        rows.reorder(sortedRows);
+        modificationCount++;
 
-            applyFilter();
+        if (isBatching()) {
+            return;
+        }
+
+        if (result.moves == null) {
+            final int shownCount = getShownCount();
+            if (shownCount > 0) {
+                dispatcher.onChanged(0, shownCount, null);
+            }
+            return;
+        }
+
+        dispatcher.hold();
+        for (int i = 0; i < result.moves.length; i += 2) {
+            dispatcher.onMoved(result.moves[i], result.moves[i + 1]);
+        }
 
-            if (!shownRows.isEmpty()) {
-                notifyItemRangeChanged(0, shownRows.size());
+        if (redrawsNeighbours()) {
+            for (int position : result.redrawPositions) {
+                dispatcher.onChanged(position, 1, ChangeType.REDRAW);
             }
         }
+        dispatcher.flush();
+    }
+
+    private static <T> Comparator<Row<T>> createRowComparator(final Comparator<T> sorter) {
+        return new Comparator<Row<T>>() {
+            @Override
+            public int compare(Row<T> o1, Row<T> o2) {
+                return sorter.compare(o1.getData(), o2.getData());
+            }
+        };
     }
 
     public void setSelectionMode(SelectionMode selectionMode) {
+        checkMainThread();
+
         this.selectionMode = selectionMode;
 
-        if (!rows.isEmpty()) {
+        if (hasRows()) {
             throw new UnsupportedOperationException("Changing selection mode on shown items is not supported");
         }
     }
 
+    public void setKeyFunction(Function<T, ?> keyFunction) {
+        checkMainThread();
+
+        if (hasRows()) {
+            throw new UnsupportedOperationException("Changing key function on shown items is not supported");
+        }
+
+        // compact storage has no key index, a key function would only make its scans slower
+        checkNotCompact();
+
+        this.keyFunction = keyFunction;
+    }
+
+    public void setSectionFunction(final Function<T, ?> sectionFunction) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applySectionFunction(sectionFunction);
+            }
+        });
+    }
+
+    private void applySectionFunction(Function<T, ?> sectionFunction) {
+        this.sectionFunction = sectionFunction;
+        sectionGeneration++;
+
+        final int shownCount = getNotifiedCount();
+        if (shownCount > 0) {
+            dispatcher.onChanged(0, shownCount, ChangeType.REDRAW);
+        }
+    }
+
+    // Cells, which don't look at their neighbours in CellContext, don't need to be redrawn,
+    // when the neighbours change. While a section function is set, rows next to added, removed, moved
+    // and changed rows are still redrawn, so that SectionHeaderDecoration updates only their offsets.
+    public void setRedrawNeighbours(boolean redrawNeighbours) {
+        checkMainThread();
+
+        this.redrawNeighbours = redrawNeighbours;
+    }
+
+    private boolean redrawsNeighbours() {
+        return redrawNeighbours || (sectionFunction != null);
+    }
+
+    public boolean isSectionStart(int viewPosition) {
+        checkMainThread();
+
+        if (sectionFunction == null) {
+            return false;
+        }
+
+        if (viewPosition == 0) {
+            return true;
+        }
+
+        return !Objects.equal(getSection(viewPosition - 1), getSection(viewPosition));
+    }
+
+    public Object getSection(int viewPosition) {
+        checkMainThread();
+
+        if (sectionFunction == null) {
+            return null;
+        }
+
+        final Row<T> row = getNotifiedRow(viewPosition);
+        if (row instanceof PlaceholderRow) {
+            return null;
+        }
+
+        // keys are cached per row and recalculated only when its data or the function changes
+        if (row.sectionGeneration != sectionGeneration) {
+            row.sectionKey = sectionFunction.apply(row.getData());
+            row.sectionGeneration = sectionGeneration;
+        }
+
+        return row.sectionKey;
+    }
+
+    public void setViewTypeRegistry(ViewTypeRegistry viewTypeRegistry) {
+        checkMainThread();
+
+        if (!attachedRecyclerViews.isEmpty()) {
+            throw new UnsupportedOperationException("Changing view type registry of attached adapter is not supported");
+        }
+
+        releaseViewTypes();
+
+        this.viewTypeRegistry = viewTypeRegistry;
+        this.viewTypeRegistryShared = true;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        attachedRecyclerViews.add(recyclerView);
+
+        if (viewTypeRegistryShared) {
+            final RecyclerView.RecycledViewPool pool = viewTypeRegistry.getRecycledViewPool();
+            if (recyclerView.getRecycledViewPool() != pool) {
+                recyclerView.setRecycledViewPool(pool);
+            }
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        attachedRecyclerViews.remove(recyclerView);
+
+        // view types are needed only while attached, a shared registry shouldn't keep the factories of this adapter
+        if (attachedRecyclerViews.isEmpty()) {
+            releaseViewTypes();
+        }
+    }
+
     @Override
     public int getItemViewType(int viewPosition) {
-        final CellFactory<T, View> customFactory = getCustomFactory(viewPosition);
+        return getViewType(getRowFactory(getNotifiedRow(viewPosition)));
+    }
+
+    private int getViewType(CellFactory<T, View> factory) {
+        if (factory == defaultFactory) {
+            if (defaultViewType == NO_VIEW_TYPE) {
+                defaultViewType = viewTypeRegistry.acquireViewType(defaultFactory);
+            }
+
+            return defaultViewType;
+        }
+
+        Integer viewType = factoryViewTypes.get(factory);
+        if (viewType == null) {
+            viewType = viewTypeRegistry.acquireViewType(factory);
+            factoryViewTypes.put(factory, viewType);
+        }
+
+        return viewType;
+    }
+
+    // Cells are created by the factories of this adapter, even if factories of other adapters share the view type
+    private CellFactory<T, View> getFactory(int viewType) {
+        if (viewType == defaultViewType) {
+            return defaultFactory;
+        }
+
+        for (Map.Entry<CellFactory<T, View>, Integer> entry : factoryViewTypes.entrySet()) {
+            if (entry.getValue() == viewType) {
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    private void releaseViewType(CellFactory<T, View> factory) {
+        final Integer viewType = factoryViewTypes.remove(factory);
+        if (viewType != null) {
+            viewTypeRegistry.releaseViewType(viewType);
+        }
+    }
+
+    private void releaseCustomViewTypes() {
+        for (Integer viewType : factoryViewTypes.values()) {
+            viewTypeRegistry.releaseViewType(viewType);
+        }
+        factoryViewTypes.clear();
+    }
+
+    private void releaseViewTypes() {
+        releaseCustomViewTypes();
+
+        if (defaultViewType != NO_VIEW_TYPE) {
+            viewTypeRegistry.releaseViewType(defaultViewType);
+            defaultViewType = NO_VIEW_TYPE;
+        }
+    }
+
+    public void prewarmCells(RecyclerView recyclerView, int count) {
+        prewarmCells(recyclerView, defaultFactory, count);
+    }
 
-        if (customFactory != null) {
-            return 1 + customFactories.get(customFactory);
+    // Creates empty cells while the main thread is idle and puts them into the recycler view pool,
+    // so that the first layout doesn't have to create them. Call it after the adapter is set,
+    // because setting an adapter clears the pool.
+    public void prewarmCells(RecyclerView recyclerView, CellFactory<T, ? extends View> factory, int count) {
+        checkMainThread();
+
+        if (recyclerView.getAdapter() != this) {
+            throw new IllegalStateException("Adapter must be set to the recycler view before pre-warming");
+        }
+
+        if (count <= 0) {
+            return;
+        }
+
+        final int viewType = getViewType((CellFactory<T, View>) factory);
+        if (count > DEFAULT_MAX_RECYCLED_VIEWS) {
+            recyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, count);
+        }
+
+        Looper.myQueue().addIdleHandler(new PrewarmIdleHandler(this, recyclerView, viewType, count));
+    }
+
+    private CellFactory<T, View> getRowFactory(Row<T> row) {
+        if (row instanceof PlaceholderRow) {
+            return placeholderFactory;
         }
 
-        return MAIN_VIEW_TYPE;
+        final CellFactory<T, View> customFactory = row.getCustomCellFactory();
+
+        return (customFactory != null) ? customFactory : defaultFactory;
     }
 
     @Override
     public FactoryBasedAdapter.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        CellFactory<T, View> customFactory = null;
-        if (viewType != MAIN_VIEW_TYPE) {
-            customFactory = customFactories.inverse().get(viewType - 1);
+        final CellFactory<T, View> cellFactory = getFactory(viewType);
+        if (cellFactory == null) {
+            throw new IllegalArgumentException("Unknown view type: " + viewType);
         }
 
-        final CellFactory<T, View> cellFactory = (customFactory != null) ? customFactory : defaultFactory;
+        final CellMetrics metrics = this.metrics;
+        final long startTime = (metrics != null) ? System.nanoTime() : 0;
 
         final View view = cellFactory.createEmptyCell(parent.getContext(), parent);
 
-        return new ViewHolder(view, cellFactory);
+        if (metrics != null) {
+            metrics.recordCreate(viewType, cellFactory, System.nanoTime() - startTime);
+        }
+
+        final ViewHolder holder = new ViewHolder(view, cellFactory);
+        holder.binding = new RowBinding<>(this);
+
+        return holder;
     }
 
 
     @Override
     public long getItemId(int position) {
-        final Row<T> row = shownRows.get(position);
-
-        return row.getId();
-    }
+        if (dataSource != null) {
+            return position;
+        }
 
-    private void toggleSelected(int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
+        final Row<T> row = getNotifiedRow(position);
 
-        setItemSelected(row.getData(), !row.isSelected());
+        return row.getId();
     }
 
     @Override
     public void onBindViewHolder(final FactoryBasedAdapter.ViewHolder holder, final int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
+        final Row<T> row = getNotifiedRow(viewPosition);
         final View view = holder.itemView;
 
-        final Cell<T> cell = row.getCell();
+        final Cell<T> cell = row.getCell(this);
 
         boolean newCell = !Objects.equal(cell, holder.getCell());
         if (newCell) {
@@ -133,98 +608,164 @@ public class FactoryBasedAdapter<T>
             holder.setCell(cell);
         }
 
-        final CellContext<T> cellContext = createCellContext(viewPosition, cell, newCell);
+        if (((RowBinding<?>) holder.binding).adapter != this) {
+            // the holder comes from a pool shared with another adapter
+            holder.binding = new RowBinding<>(this);
+        }
 
-        final CellFactory<T, View> factory = holder.getFactory();
-        factory.fillCell(cell, view, cellContext,
-                new CellFactory.ChangeListener<T>() {
-                    @Override
-                    public void onChange(T newValue) {
-                        for (int i = 0; i < shownRows.size(); i++) {
-                            final Row<T> shownRow = shownRows.get(i);
+        final RowBinding<T> binding = (RowBinding<T>) holder.binding;
+        setBoundRow(binding, row);
 
-                            if (Objects.equal(shownRow.getData(), newValue)) {
-                                notifyItemChanged(i, ChangeType.DATA);
-                            }
-                        }
+        final CellContext<T> cellContext = getCellContext(row, viewPosition, newCell);
 
-                        fireDataChanged(newValue);
-                    }
+        final CellFactory<T, View> factory = getRowFactory(row);
+        holder.setFactory(factory);
 
-                    @Override
-                    public void setSelected(boolean selected) {
-                        setItemSelected(cell.getData(), selected);
-                    }
+        final CellMetrics metrics = this.metrics;
+        final long startTime = (metrics != null) ? System.nanoTime() : 0;
 
-                    @Override
-                    public void redraw(Cell<T> cell) {
-                        for (int i = 0; i < shownRows.size(); i++) {
-                            final Row<T> row = shownRows.get(i);
-                            if (Objects.equal(row.getCell(), cell)) {
-                                notifyItemChanged(i, ChangeType.REDRAW);
-                            }
-                        }
-                    }
-                }
-        );
+        factory.fillCell(cell, view, cellContext, binding);
 
-        view.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                if (!clickListeners.isEmpty()) {
-                    for (ClickListener<T> listener : clickListeners) {
-                        listener.itemClicked(row.getData());
-                    }
-                    return;
-                }
+        if (metrics != null) {
+            metrics.recordFill(holder.getItemViewType(), factory, System.nanoTime() - startTime);
+        }
 
-                if ((selectionMode != SelectionMode.NONE) && (row.isEnabled())) {
-                    final int viewPosition = holder.getAdapterPosition();
+        view.setOnClickListener(binding);
+        view.setOnLongClickListener(binding);
+    }
 
-                    toggleSelected(viewPosition);
-                }
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int viewPosition, List<Object> payloads) {
+        if (dataSource != null) {
+            // pages are loaded only for bound positions, not for other lookups like view types
+            requestPages(viewPosition);
+        }
+
+        final Row<T> row = getNotifiedRow(viewPosition);
+        final Cell<T> cell = row.getCell(this);
+
+        if (payloads.isEmpty()
+                || !Objects.equal(cell, holder.getCell())
+                || (getRowFactory(row) != holder.getFactory())) {
+            onBindViewHolder(holder, viewPosition);
+            return;
+        }
+
+        final RowBinding<T> binding = (RowBinding<T>) holder.binding;
+        final EnumSet<ChangeType> changes = binding.changes;
+        changes.clear();
+
+        for (int i = 0; i < payloads.size(); i++) {
+            final Object payload = payloads.get(i);
+
+            if (!(payload instanceof ChangeType)) {
+                onBindViewHolder(holder, viewPosition);
+                return;
             }
-        });
 
-        view.setOnLongClickListener(new View.OnLongClickListener() {
-            @Override
-            public boolean onLongClick(View v) {
-                if (!longClickListeners.isEmpty()) {
-                    for (ClickListener<T> listener : longClickListeners) {
-                        listener.itemClicked(row.getData());
-                    }
+            changes.add((ChangeType) payload);
+        }
 
-                    return true;
-                }
+        setBoundRow(binding, row);
 
-                if ((selectionMode != SelectionMode.NONE) && (row.isEnabled())) {
-                    final int viewPosition = holder.getAdapterPosition();
+        final CellContext<T> cellContext = getCellContext(row, viewPosition, false);
 
-                    toggleSelected(viewPosition);
+        final CellFactory<T, View> factory = holder.getFactory();
 
-                    return true;
-                }
+        final CellMetrics metrics = this.metrics;
+        final long startTime = (metrics != null) ? System.nanoTime() : 0;
 
-                return false;
+        final boolean updated = factory.updateCell(cell, holder.itemView, cellContext, changes, binding);
+        if (!updated) {
+            factory.fillCell(cell, holder.itemView, cellContext, binding);
+        }
+
+        if (metrics != null) {
+            final long duration = System.nanoTime() - startTime;
+            if (updated) {
+                metrics.recordUpdate(holder.getItemViewType(), factory, duration);
+            } else {
+                metrics.recordFill(holder.getItemViewType(), factory, duration);
             }
-        });
+        }
     }
 
-    private CellContext<T> createCellContext(int viewPosition, Cell<T> cell, boolean newCell) {
+    // Contexts are immutable, so the one of the previous bind is reused, while the neighbours stay the same
+    private CellContext<T> getCellContext(Row<T> row, int viewPosition, boolean newCell) {
+        final RowCell<T> cell = row.getCell(this);
+
         Cell<T> prevCell;
         if (viewPosition == 0) {
             prevCell = null;
         } else {
-            prevCell = shownRows.get(viewPosition - 1).getCell();
+            prevCell = getNotifiedRow(viewPosition - 1).getCell(this);
         }
 
         Cell<T> nextCell;
-        if (viewPosition == (shownRows.size() - 1)) {
+        if (viewPosition == (getNotifiedCount() - 1)) {
             nextCell = null;
         } else {
-            nextCell = shownRows.get(viewPosition + 1).getCell();
+            nextCell = getNotifiedRow(viewPosition + 1).getCell(this);
+        }
+
+        final CellContext<T> lastContext = cell.lastContext;
+        if ((lastContext != null)
+                && (lastContext.getPrevCell() == prevCell)
+                && (lastContext.getNextCell() == nextCell)
+                && (lastContext.isNewCell() == newCell)) {
+            return lastContext;
+        }
+
+        final CellContext<T> cellContext = new CellContext<>(cell, nextCell, prevCell, newCell);
+        cell.lastContext = cellContext;
+        return cellContext;
+    }
+
+    private void notifyDataChanged(T newValue) {
+        for (Row<T> changedRow : findRows(newValue)) {
+            changedRow.sectionGeneration = 0;
+            updateSearchText(changedRow);
+
+            final int position = getNotifiedPosition(changedRow);
+
+            if (position >= 0) {
+                dispatcher.onChanged(position, 1, ChangeType.DATA);
+                notifyNeighboursRedraw(position, false);
+            }
+        }
+
+        fireDataChanged(newValue);
+    }
+
+    private void notifyCellRedraw(Cell<T> cell) {
+        for (Row<T> row : findRows(cell.getData())) {
+            if (row.cell != cell) {
+                continue;
+            }
+
+            final int position = getNotifiedPosition(row);
+            if (position >= 0) {
+                dispatcher.onChanged(position, 1, ChangeType.REDRAW);
+            }
+        }
+    }
+
+    private boolean handleClick(Row<T> row, List<ClickListener<T>> listeners) {
+        if (!listeners.isEmpty()) {
+            for (ClickListener<T> listener : listeners) {
+                listener.itemClicked(row.getData());
+            }
+
+            return true;
+        }
+
+        if ((selectionMode != SelectionMode.NONE) && (row.isEnabled())) {
+            setItemSelected(row.getData(), !row.isSelected());
+
+            return true;
         }
-        return new CellContext<>(cell, nextCell, prevCell, newCell);
+
+        return false;
     }
 
     @Override
@@ -236,445 +777,2650 @@ public class FactoryBasedAdapter<T>
 
         factory.clearCell(cell, itemView);
 
+        if (metrics != null) {
+            metrics.recordClear(holder.getItemViewType(), factory);
+        }
+
         cell.resetViewState();
         holder.setCell(null);
-    }
 
-    private CellFactory<T, View> getCustomFactory(int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
-
-        return row.getCustomCellFactory();
+        final RowBinding<T> binding = (RowBinding<T>) holder.binding;
+        setBoundRow(binding, null);
     }
 
     private int viewPositionToModel(int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
+        final Row<T> row = getShownRow(viewPosition);
 
         return rows.indexOf(row);
     }
 
-    @Override
-    public int getItemCount() {
-        return shownRows.size();
-    }
+    // Positions passed to the adapter refer to the current rows, including changes of an uncommitted batch
+    private Row<T> getShownRow(int viewPosition) {
+        if (dataSource != null) {
+            return getPagedRow(viewPosition);
+        }
+
+        if (compactRows != null) {
+            return getCompactRow(viewPosition);
+        }
+
+        return rows.getShown(viewPosition);
+    }
+
+    private int getShownCount() {
+        if (dataSource != null) {
+            return dataSourceCount;
+        }
+
+        if (compactRows != null) {
+            return compactRows.size();
+        }
+
+        return rows.shownSize();
+    }
+
+    // RecyclerView sees the rows it was notified about, until a batch is committed
+    private Row<T> getNotifiedRow(int viewPosition) {
+        if (batchShownRows != null) {
+            return batchShownRows.get(viewPosition);
+        }
+
+        return getShownRow(viewPosition);
+    }
+
+    private int getNotifiedPosition(Row<T> row) {
+        if (dataSource != null) {
+            return -1;
+        }
+
+        if (compactRows != null) {
+            return ((CompactRow<T>) row).index;
+        }
+
+        if (batchShownRows != null) {
+            return batchShownRows.indexOf(row);
+        }
+
+        return rows.shownIndexOf(row);
+    }
+
+    private int getNotifiedCount() {
+        if (batchShownRows != null) {
+            return batchShownRows.size();
+        }
+
+        return getShownCount();
+    }
+
+    // Converts a position reported by RecyclerView to the position in the current rows, -1 if the row is removed
+    int toShownPosition(int notifiedPosition) {
+        if (batchShownRows == null) {
+            return notifiedPosition;
+        }
+
+        return rows.shownIndexOf(batchShownRows.get(notifiedPosition));
+    }
+
+    // Bound rows are reused, so their cells keep the state. Other rows live only during the call
+    private Row<T> getCompactRow(int index) {
+        for (int i = 0; i < boundCompactRows.size(); i++) {
+            final CompactRow<T> row = boundCompactRows.get(i);
+            if (row.index == index) {
+                return row;
+            }
+        }
+
+        return new CompactRow<>(compactRows, index);
+    }
+
+    private void setBoundRow(RowBinding<T> binding, Row<T> row) {
+        final Row<T> previousRow = binding.row;
+        binding.row = row;
+
+        if ((compactRows == null) || (previousRow == row)) {
+            return;
+        }
+
+        if (previousRow instanceof CompactRow) {
+            final CompactRow<T> compactRow = (CompactRow<T>) previousRow;
+            compactRow.bindCount--;
+            if (compactRow.bindCount == 0) {
+                boundCompactRows.remove(compactRow);
+            }
+        }
+
+        if (row instanceof CompactRow) {
+            final CompactRow<T> compactRow = (CompactRow<T>) row;
+            if (compactRow.bindCount == 0) {
+                boundCompactRows.add(compactRow);
+            }
+            compactRow.bindCount++;
+        }
+    }
+
+    private void insertCompactRows(int index, List<T> items) {
+        compactRows.ensureCapacity(compactRows.size() + items.size());
+
+        final long firstId = Row.idCounter.getAndAdd(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            compactRows.add(index + i, items.get(i), firstId + i);
+        }
+
+        for (CompactRow<T> row : boundCompactRows) {
+            if (row.index >= index) {
+                row.index += items.size();
+            }
+        }
+    }
+
+    private void removeCompactRow(int index) {
+        for (Iterator<CompactRow<T>> iterator = boundCompactRows.iterator(); iterator.hasNext(); ) {
+            final CompactRow<T> row = iterator.next();
+
+            if (row.index == index) {
+                // holders bound to the row keep its last state until they are rebound
+                row.detach();
+                iterator.remove();
+            } else if (row.index > index) {
+                row.index--;
+            }
+        }
+
+        compactRows.remove(index);
+    }
+
+    private void clearCompactRows() {
+        for (CompactRow<T> row : boundCompactRows) {
+            row.detach();
+        }
+        boundCompactRows.clear();
+
+        compactRows.clear();
+    }
+
+    @Override
+    public int getItemCount() {
+        checkMainThread();
+
+        return getNotifiedCount();
+    }
+
+    /**
+     * Count of the shown items, which positions of {@link #getItem(int)} and {@link #remove(int)} refer to.
+     * Differs from {@link #getItemCount()} inside a batch.
+     */
+    public int getShownItemCount() {
+        checkMainThread();
+
+        return getShownCount();
+    }
+
+    public void setFilter(final Predicate<T> filter) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applyFilter(filter);
+            }
+        });
+    }
+
+    private void applyFilter(Predicate<T> filter) {
+        checkNotPaged();
+        checkNotCompact();
+        holdUntilFrame();
+
+        filterGeneration.incrementAndGet();
+
+        this.filter = filter;
+
+        rows.filter(rowFilter);
+        modificationCount++;
+
+        if (isBatching()) {
+            return;
+        }
+
+        dispatcher.onDataSetChanged();
+    }
+
+    public void setFilterAsync(final Predicate<T> filter) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applyFilterAsync(filter, 0);
+            }
+        });
+    }
+
+    private void applyFilterAsync(final Predicate<T> filter, final int restarts) {
+        checkNotPaged();
+        checkNotCompact();
+
+        if (restarts >= MAX_ASYNC_RESTARTS) {
+            applyFilter(filter);
+            return;
+        }
+
+        final int generation = filterGeneration.incrementAndGet();
+        final int expectedModificationCount = modificationCount;
+
+        final List<Row<T>> snapshotRows = rows.toList();
+        final List<T> snapshotItems = new ArrayList<>(snapshotRows.size());
+        for (Row<T> row : snapshotRows) {
+            snapshotItems.add(row.getData());
+        }
+
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean[] shown = new boolean[snapshotItems.size()];
+
+                for (int chunkStart = 0; chunkStart < shown.length; chunkStart += FILTER_CHUNK_SIZE) {
+                    if (generation != filterGeneration.get()) {
+                        return;
+                    }
+
+                    final int chunkEnd = Math.min(chunkStart + FILTER_CHUNK_SIZE, shown.length);
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        shown[i] = (filter == null) || filter.apply(snapshotItems.get(i));
+                    }
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != filterGeneration.get()) {
+                            return;
+                        }
+
+                        if (expectedModificationCount != modificationCount) {
+                            applyFilterAsync(filter, restarts + 1);
+                            return;
+                        }
+
+                        publishFilter(filter, shown);
+                    }
+                });
+            }
+        });
+    }
+
+    private void publishFilter(Predicate<T> filter, boolean[] shown) {
+        holdUntilFrame();
+
+        this.filter = filter;
+
+        final boolean[] oldShown = rows.getShownFlags();
+        rows.setShownFlags(shown);
+        modificationCount++;
+
+        if (isBatching()) {
+            return;
+        }
+
+        notifyShownFlagsChanged(oldShown, shown);
+    }
+
+    // The filter must accept only items accepted by the current one (e.g. a longer search query),
+    // so only currently shown rows are checked. The current result is kept for restorePreviousFilter().
+    public void narrowFilter(final Predicate<T> filter) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applyNarrowFilter(filter);
+            }
+        });
+    }
+
+    private void applyNarrowFilter(Predicate<T> filter) {
+        checkNotPaged();
+        checkNotCompact();
+        holdUntilFrame();
+
+        filterGeneration.incrementAndGet();
+        pushFilterState();
+
+        this.filter = filter;
+
+        final List<Row<T>> shownRows = rows.shownToList();
+        final boolean[] oldShown = new boolean[shownRows.size()];
+        final boolean[] newShown = new boolean[shownRows.size()];
+        for (int i = 0; i < shownRows.size(); i++) {
+            final Row<T> row = shownRows.get(i);
+
+            oldShown[i] = true;
+            newShown[i] = isMatching(row);
+            if (!newShown[i]) {
+                rows.setShown(row, false);
+            }
+        }
+        modificationCount++;
+        filterStackModificationCount = modificationCount;
+
+        if (isBatching()) {
+            return;
+        }
+
+        notifyShownFlagsChanged(oldShown, newShown);
+    }
+
+    // The filter must accept all items accepted by the current one, so only hidden rows are checked.
+    // If it equals the filter on top of the narrowFilter() stack, that result is restored instead.
+    public void widenFilter(final Predicate<T> filter) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applyWidenFilter(filter);
+            }
+        });
+    }
+
+    private void applyWidenFilter(Predicate<T> filter) {
+        checkNotPaged();
+        checkNotCompact();
+
+        if (isFilterStackValid()
+                && !filterStack.isEmpty()
+                && Objects.equal(filterStack.peek().filter, filter)) {
+
+            restorePreviousFilter();
+            return;
+        }
+
+        holdUntilFrame();
+
+        filterGeneration.incrementAndGet();
+
+        final boolean stackValid = isFilterStackValid();
 
-    public void setFilter(final Predicate<T> filter) {
         this.filter = filter;
 
-        applyFilter();
+        final List<Row<T>> shownRows = new ArrayList<>();
+        for (Row<T> row : rows.hiddenToList()) {
+            if (isMatching(row)) {
+                rows.setShown(row, true);
+                shownRows.add(row);
+            }
+        }
+        modificationCount++;
+
+        // stored results don't depend on the current filter
+        if (stackValid) {
+            filterStackModificationCount = modificationCount;
+        }
+
+        if (isBatching()) {
+            return;
+        }
+
+        notifyRowsInserted(shownRows);
+    }
+
+    // Reverts the last narrowFilter() without evaluating any filter.
+    // Returns false, if there is nothing to revert or the items were modified since.
+    public boolean restorePreviousFilter() {
+        checkMainThread();
+        checkNotPaged();
+        checkNotCompact();
+
+        if (!isFilterStackValid()) {
+            filterStack.clear();
+        }
+
+        if (filterStack.isEmpty()) {
+            return false;
+        }
+
+        final FilterState<T> state = filterStack.pop();
+
+        holdUntilFrame();
+
+        filterGeneration.incrementAndGet();
+
+        this.filter = state.filter;
+
+        final boolean[] oldShown = rows.getShownFlags();
+        rows.setShownFlags(state.shown);
+        modificationCount++;
+        filterStackModificationCount = modificationCount;
+
+        if (!isBatching()) {
+            notifyShownFlagsChanged(oldShown, state.shown);
+        }
+
+        return true;
+    }
+
+    // Texts of the items are kept in a trigram index, so setSearchQuery() doesn't check every row.
+    // The function should return the text shown by the cell, e.g. String.valueOf() for TextCellFactory.
+    public void setSearchTextFunction(final Function<T, String> searchTextFunction) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applySearchTextFunction(searchTextFunction);
+            }
+        });
+    }
+
+    private void applySearchTextFunction(Function<T, String> searchTextFunction) {
+        checkNotPaged();
+        checkNotCompact();
+
+        this.searchTextFunction = searchTextFunction;
+
+        searchIndex.clear();
+        if (searchTextFunction == null) {
+            return;
+        }
+
+        for (Row<T> row : rows.toList()) {
+            searchIndex.add(row, searchTextFunction.apply(row.getData()));
+        }
+
+        if (filter instanceof SearchFilter) {
+            applySearchQuery(((SearchFilter<T>) filter).query);
+        }
+    }
+
+    // Shows items, which search texts contain the query ignoring case. Replaces the current filter,
+    // an empty query shows all items. Rows are looked up in the index, instead of evaluating the filter.
+    public void setSearchQuery(final String query) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                applySearchQuery(query);
+            }
+        });
+    }
+
+    private void applySearchQuery(String query) {
+        checkNotPaged();
+        checkNotCompact();
+
+        if (searchTextFunction == null) {
+            throw new IllegalStateException("Search text function is not set");
+        }
+
+        final boolean emptyQuery = (query == null) || query.isEmpty();
+        final Predicate<T> searchFilter = emptyQuery ? null : new SearchFilter<>(searchTextFunction, query);
+        final BitSet matches = emptyQuery ? null : searchIndex.search(query);
+
+        filterGeneration.incrementAndGet();
+
+        holdUntilFrame();
+
+        this.filter = searchFilter;
+
+        // while typing both old and new results are usually small, so only rows changing visibility are touched.
+        // Otherwise the list is reset like in setFilter(), as thousands of ranges would be slower to dispatch.
+        if (emptyQuery || ((rows.shownSize() + matches.cardinality()) * SEARCH_FULL_UPDATE_RATIO > rows.size())) {
+            rows.filter(new com.google.common.base.Predicate<Row<T>>() {
+                @Override
+                public boolean apply(Row<T> row) {
+                    return emptyQuery || isSearchMatch(row, matches);
+                }
+            });
+            modificationCount++;
+
+            if (!isBatching()) {
+                dispatcher.onDataSetChanged();
+            }
+            return;
+        }
+
+        final List<Row<T>> oldShownRows = rows.shownToList();
+        final boolean[] oldShown = new boolean[oldShownRows.size()];
+        final boolean[] newShown = new boolean[oldShownRows.size()];
+        for (int i = 0; i < oldShownRows.size(); i++) {
+            final Row<T> row = oldShownRows.get(i);
+
+            oldShown[i] = true;
+            newShown[i] = isSearchMatch(row, matches);
+            if (!newShown[i]) {
+                rows.setShown(row, false);
+            }
+        }
+        modificationCount++;
+
+        if (!isBatching()) {
+            notifyShownFlagsChanged(oldShown, newShown);
+        }
+
+        final List<Row<T>> insertedRows = new ArrayList<>();
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            final Row<T> row = searchIndex.getElement(slot);
+            if (!rows.isShown(row)) {
+                rows.setShown(row, true);
+                insertedRows.add(row);
+            }
+        }
+
+        if (!isBatching()) {
+            notifyRowsInserted(insertedRows);
+        }
+    }
+
+    private static boolean isSearchMatch(Row<?> row, BitSet matches) {
+        final int slot = row.getTextSlot();
+        return (slot >= 0) && matches.get(slot);
+    }
+
+    private void pushFilterState() {
+        if (!isFilterStackValid()) {
+            filterStack.clear();
+        }
+
+        filterStack.push(new FilterState<>(filter, rows.getShownFlags()));
+        if (filterStack.size() > MAX_FILTER_STACK_SIZE) {
+            filterStack.removeLast();
+        }
+    }
+
+    private boolean isFilterStackValid() {
+        return filterStackModificationCount == modificationCount;
+    }
+
+    private void notifyShownFlagsChanged(boolean[] oldShown, boolean[] newShown) {
+        int itemCount = 0;
+        int newItemCount = 0;
+        int rangesCount = 0;
+        for (int i = 0; i < newShown.length; i++) {
+            if (oldShown[i]) {
+                itemCount++;
+            }
+            if (newShown[i]) {
+                newItemCount++;
+            }
+
+            if ((oldShown[i] != newShown[i])
+                    && ((i == 0) || (oldShown[i - 1] == newShown[i - 1]) || (newShown[i - 1] != newShown[i]))) {
+                rangesCount++;
+            }
+        }
+
+        // like in setSearchQuery(), a fragmented result is cheaper to reset than to dispatch range by range
+        if (rangesCount * RANGES_FULL_UPDATE_RATIO > Math.max(itemCount, newItemCount)) {
+            dispatcher.onDataSetChanged();
+            return;
+        }
+
+        int viewPosition = 0;
+        int index = 0;
+
+        dispatcher.hold();
+        while (index < newShown.length) {
+            if (oldShown[index] == newShown[index]) {
+                if (newShown[index]) {
+                    viewPosition++;
+                }
+
+                index++;
+                continue;
+            }
+
+            final boolean inserted = newShown[index];
+            int count = 0;
+            while ((index < newShown.length)
+                    && (oldShown[index] != newShown[index])
+                    && (newShown[index] == inserted)) {
+                count++;
+                index++;
+            }
 
-        notifyDataSetChanged();
+            if (inserted) {
+                dispatcher.onInserted(viewPosition, count);
+                itemCount += count;
+                notifyRangeNeighboursRedraw(viewPosition, count, itemCount);
+                viewPosition += count;
+
+            } else {
+                dispatcher.onRemoved(viewPosition, count);
+                itemCount -= count;
+                notifyRangeNeighboursRedraw(viewPosition, 0, itemCount);
+            }
+        }
+        dispatcher.flush();
     }
 
-    private void applyFilter() {
-        if (filter != null) {
-            final Collection<Row<T>> unfiltered = Collections2.filter(rows, new com.google.common.base.Predicate<Row<T>>() {
-                @Override
-                public boolean apply(Row<T> input) {
-                    return filter.apply(input.getData());
-                }
-            });
-            shownRows = new ArrayList<>(unfiltered);
+    public void setDataSource(DataSource<T> dataSource, CellFactory<T, ? extends View> placeholderFactory) {
+        setDataSource(dataSource, placeholderFactory, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public void setDataSource(
+            DataSource<T> dataSource,
+            CellFactory<T, ? extends View> placeholderFactory,
+            int pageSize,
+            int maxPages) {
+
+        checkMainThread();
+        checkNotCompact();
+
+        if (!rows.isEmpty()) {
+            throw new UnsupportedOperationException("Cannot attach data source to adapter with items");
+        }
+
+        this.dataSource = dataSource;
+        this.placeholderFactory = (CellFactory<T, View>) placeholderFactory;
+        this.pageSize = pageSize;
+        this.pages = createPagesCache(maxPages);
+
+        reloadDataSource();
+    }
+
+    public void refreshDataSource() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                reloadDataSource();
+            }
+        });
+    }
+
+    private void reloadDataSource() {
+        dataSourceGeneration++;
+        pages.clear();
+        loadingPages.clear();
+        placeholderRows.clear();
+
+        dataSourceCount = (dataSource != null) ? dataSource.getCount() : 0;
+
+        dispatcher.onDataSetChanged();
+    }
+
+    // See the class documentation for the threading rules
+    private void runOnMainThread(Runnable action) {
+        if (!isMainThread()) {
+            postedActions.add(action);
+            mainHandler.post(postedActionsRunner);
+            return;
+        }
+
+        // nested calls belong to the running action, posted ones wait until it's done
+        if (runningActionsDepth == 0) {
+            runPostedActions();
+        }
+
+        runAction(action);
+    }
+
+    private void runPostedActions() {
+        Runnable action;
+        while ((action = postedActions.poll()) != null) {
+            runAction(action);
+        }
+    }
+
+    private void runAction(Runnable action) {
+        runningActionsDepth++;
+        try {
+            action.run();
+        } finally {
+            runningActionsDepth--;
+        }
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    private static void checkMainThread() {
+        if (!isMainThread()) {
+            throw new IllegalStateException("Must be called on the main thread");
+        }
+    }
+
+    private void checkNotPaged() {
+        if (dataSource != null) {
+            throw new IllegalStateException("Not supported for adapter backed by data source");
+        }
+    }
+
+    /**
+     * Compact storage keeps the items in parallel arrays instead of a row object per item, for very large lists.
+     * Rows are created only for bound positions. Items are found by scanning them with {@code equals()},
+     * so a key function can't be set. Sorting, filtering, search, batches and setItems() are not supported either.
+     */
+    public void setCompactStorage(boolean compactStorage) {
+        checkMainThread();
+        checkNotPaged();
+
+        if (hasRows()) {
+            throw new UnsupportedOperationException("Changing storage of adapter with items is not supported");
+        }
+
+        if (compactStorage && ((keyFunction != null) || (sorter != null) || (filter != null)
+                || (searchTextFunction != null) || isBatching())) {
+            throw new IllegalStateException(
+                    "Compact storage doesn't support key function, sorting, filtering, search and batches");
+        }
+
+        compactRows = compactStorage ? new CompactRows<T, CellFactory<T, View>>() : null;
+    }
+
+    private void checkNotCompact() {
+        if (compactRows != null) {
+            throw new IllegalStateException("Not supported for adapter with compact storage");
+        }
+    }
+
+    private boolean hasRows() {
+        return !rows.isEmpty() || ((compactRows != null) && !compactRows.isEmpty());
+    }
+
+    private static <T> Map<Integer, List<Row<T>>> createPagesCache(final int maxPages) {
+        return new LinkedHashMap<Integer, List<Row<T>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Row<T>>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    private Row<T> getPagedRow(int viewPosition) {
+        final List<Row<T>> page = pages.get(viewPosition / pageSize);
+        if (page != null) {
+            return page.get(viewPosition % pageSize);
+        }
+
+        Row<T> placeholderRow = placeholderRows.get(viewPosition);
+        if (placeholderRow == null) {
+            placeholderRow = new PlaceholderRow<>();
+            placeholderRows.put(viewPosition, placeholderRow);
+        }
+
+        return placeholderRow;
+    }
+
+    private void requestPages(int viewPosition) {
+        final int pageIndex = viewPosition / pageSize;
+        final int pageOffset = viewPosition % pageSize;
+
+        requestPage(pageIndex);
+
+        // load neighbour pages in advance, when getting close to them
+        final int prefetchDistance = Math.max(1, pageSize / 4);
+        if (pageOffset < prefetchDistance) {
+            requestPage(pageIndex - 1);
+        } else if (pageOffset >= pageSize - prefetchDistance) {
+            requestPage(pageIndex + 1);
+        }
+    }
+
+    private void requestPage(final int pageIndex) {
+        final int offset = pageIndex * pageSize;
+        if ((pageIndex < 0) || (offset >= dataSourceCount)) {
+            return;
+        }
+
+        if (pages.containsKey(pageIndex) || loadingPages.contains(pageIndex)) {
+            return;
+        }
+
+        loadingPages.add(pageIndex);
+
+        final DataSource<T> dataSource = this.dataSource;
+        final int generation = dataSourceGeneration;
+        final int limit = Math.min(pageSize, dataSourceCount - offset);
+
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<T> items = null;
+                try {
+                    items = dataSource.load(offset, limit);
+
+                } catch (RuntimeException e) {
+                    // a failed load leaves the page unloaded, so that it's requested again on the next bind
+                    Log.w("FactoryBasedAdapter", "requestPage: couldn't load " + limit + " items at " + offset, e);
+                }
+
+                final List<T> loadedItems = items;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != dataSourceGeneration) {
+                            return;
+                        }
+
+                        loadingPages.remove(pageIndex);
+
+                        if (loadedItems != null) {
+                            putPage(pageIndex, loadedItems, limit);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void putPage(int pageIndex, List<T> items, int requestedCount) {
+        final int offset = pageIndex * pageSize;
+        if (offset >= dataSourceCount) {
+            // the count was cut by a short page meanwhile
+            return;
+        }
+
+        final int count = Math.min(items.size(), requestedCount);
+        final List<Row<T>> page = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            page.add(new Row<>(items.get(i)));
+        }
+
+        if (count < requestedCount) {
+            // the data source has fewer items than it reported, positions after the loaded ones are removed
+            truncateDataSource(offset + count);
+        }
+
+        if (!page.isEmpty()) {
+            pages.put(pageIndex, page);
+            for (int i = 0; i < count; i++) {
+                placeholderRows.remove(offset + i);
+            }
+
+            dispatcher.onChanged(offset, count, ChangeType.DATA);
+        }
+    }
+
+    private void truncateDataSource(int newCount) {
+        final int removedCount = dataSourceCount - newCount;
+        dataSourceCount = newCount;
+
+        final Iterator<Integer> pagesIterator = pages.keySet().iterator();
+        while (pagesIterator.hasNext()) {
+            if (pagesIterator.next() * pageSize >= newCount) {
+                pagesIterator.remove();
+            }
+        }
+
+        for (int i = placeholderRows.size() - 1; i >= 0; i--) {
+            if (placeholderRows.keyAt(i) >= newCount) {
+                placeholderRows.removeAt(i);
+            }
+        }
+
+        dispatcher.onRemoved(newCount, removedCount);
+    }
+
+    private boolean isMatching(Row<T> row) {
+        return (filter == null) || filter.apply(row.getData());
+    }
+
+    public T getItem(int viewPosition) {
+        checkMainThread();
+
+        final Row<T> row = getShownRow(viewPosition);
+        return (row != null) ? row.getData() : null;
+    }
+
+    public void clear() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                clearItems();
+            }
+        });
+    }
+
+    private void clearItems() {
+        checkNotPaged();
+        holdUntilFrame();
+
+        final List<T> removedItems = dataListeners.isEmpty()
+                ? Collections.<T>emptyList()
+                : getAllItems();
+
+        rows.clear();
+        rowsIndex.clear();
+        rowsById.clear();
+        searchIndex.clear();
+        selection.clear();
+        releaseCustomViewTypes();
+        if (compactRows != null) {
+            clearCompactRows();
+        }
+        modificationCount++;
+
+        if (!isBatching()) {
+            dispatcher.onDataSetChanged();
+        }
+
+        if (!removedItems.isEmpty()) {
+            fireDataRemovedAll(removedItems);
+        }
+    }
+
+    public void setDiffExecutor(Executor diffExecutor) {
+        checkMainThread();
+
+        this.diffExecutor = diffExecutor;
+    }
+
+    public void setItems(List<T> items) {
+        setItems(items, Equivalence.equals());
+    }
+
+    public void setItems(List<T> items, final Equivalence<? super T> contentEquivalence) {
+        // copied before posting, the caller may change the list afterwards
+        final List<T> newItems = new ArrayList<>(items);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                replaceItems(newItems, contentEquivalence, 0);
+            }
+        });
+    }
+
+    // takes ownership of newItems, they are sorted in place
+    private void replaceItems(
+            final List<T> newItems,
+            final Equivalence<? super T> contentEquivalence,
+            final int restarts) {
+
+        checkNotPaged();
+        checkNotCompact();
+
+        if (isBatching()) {
+            throw new IllegalStateException("Cannot replace items inside a batch");
+        }
+
+        final List<Row<T>> oldRows = rows.toList();
+        final List<Row<T>> oldShownRows = rows.shownToList();
+        final List<T> oldItems = new ArrayList<>(oldRows.size());
+        for (Row<T> row : oldRows) {
+            oldItems.add(row.getData());
+        }
+
+        final int generation = ++setItemsGeneration;
+        final int expectedModificationCount = modificationCount;
+        final Comparator<T> sorter = this.sorter;
+        final Predicate<T> filter = this.filter;
+
+        if (restarts >= MAX_ASYNC_RESTARTS) {
+            applyItemsDiff(calculateItemsDiff(
+                    oldRows, oldItems, oldShownRows, newItems, sorter, filter, contentEquivalence));
+            return;
+        }
+
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ItemsDiff<T> diff = calculateItemsDiff(
+                        oldRows, oldItems, oldShownRows, newItems, sorter, filter, contentEquivalence);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != setItemsGeneration) {
+                            return;
+                        }
+
+                        if (expectedModificationCount != modificationCount) {
+                            // the adapter was changed while diffing, start over from its current state
+                            replaceItems(newItems, contentEquivalence, restarts + 1);
+                            return;
+                        }
+
+                        applyItemsDiff(diff);
+                    }
+                });
+            }
+        });
+    }
+
+    private ItemsDiff<T> calculateItemsDiff(
+            List<Row<T>> oldRows,
+            List<T> oldItems,
+            List<Row<T>> oldShownRows,
+            List<T> newItems,
+            Comparator<T> sorter,
+            Predicate<T> filter,
+            Equivalence<? super T> contentEquivalence) {
+
+        if (sorter != null) {
+            Collections.sort(newItems, sorter);
+        }
+
+        final Map<Object, LinkedList<Row<T>>> rowsByKey = new HashMap<>();
+        final Map<Row<T>, T> oldData = new IdentityHashMap<>(oldRows.size());
+        for (int i = 0; i < oldRows.size(); i++) {
+            final Row<T> row = oldRows.get(i);
+            final T item = oldItems.get(i);
+            oldData.put(row, item);
+
+            final Object key = getKey(item);
+            LinkedList<Row<T>> keyRows = rowsByKey.get(key);
+            if (keyRows == null) {
+                keyRows = new LinkedList<>();
+                rowsByKey.put(key, keyRows);
+            }
+            keyRows.add(row);
+        }
+
+        final ItemsDiff<T> diff = new ItemsDiff<>();
+        final Set<Row<T>> reusedRows = new HashSet<>();
+
+        final List<Row<T>> newShownRows = new ArrayList<>();
+        for (T item : newItems) {
+            final LinkedList<Row<T>> keyRows = rowsByKey.get(getKey(item));
+
+            Row<T> row;
+            if ((keyRows != null) && !keyRows.isEmpty()) {
+                row = keyRows.removeFirst();
+                reusedRows.add(row);
+
+                if (!contentEquivalence.equivalent(oldData.get(row), item)) {
+                    diff.changes.put(row, ChangeType.DATA);
+                }
+            } else {
+                row = new Row<>(item);
+                diff.addedRows.add(row);
+            }
+
+            diff.newRows.add(row);
+            diff.newData.add(item);
+
+            if ((filter == null) || filter.apply(item)) {
+                newShownRows.add(row);
+            } else {
+                diff.hiddenRows.add(row);
+            }
+        }
+
+        for (Row<T> oldRow : oldRows) {
+            if (!reusedRows.contains(oldRow)) {
+                diff.removedRows.add(oldRow);
+            }
+        }
+
+        diff.oldShownRows = oldShownRows;
+        diff.newShownRows = newShownRows;
+        diff.result = DiffUtil.calculateDiff(
+                new RowsDiffCallback<>(oldShownRows, newShownRows, diff.changes),
+                true);
+
+        return diff;
+    }
+
+    private void applyItemsDiff(final ItemsDiff<T> diff) {
+        for (Row<T> removedRow : diff.removedRows) {
+            unindexRow(removedRow);
+            selection.release(removedRow);
+        }
+
+        for (int i = 0; i < diff.newRows.size(); i++) {
+            final Row<T> row = diff.newRows.get(i);
+            row.setData(diff.newData.get(i));
+            updateSearchText(row);
+        }
+
+        for (Row<T> addedRow : diff.addedRows) {
+            indexRow(addedRow);
+        }
+
+        rows.clear();
+        rows.addAll(diff.newRows, new com.google.common.base.Predicate<Row<T>>() {
+            @Override
+            public boolean apply(Row<T> row) {
+                return !diff.hiddenRows.contains(row);
+            }
+        });
+        modificationCount++;
+
+        dispatcher.hold();
+        diff.result.dispatchUpdatesTo(dispatcher);
+        notifyChangedNeighbours(diff.oldShownRows, diff.newShownRows, diff.changes.keySet());
+        dispatcher.flush();
+
+        if (!diff.removedRows.isEmpty()) {
+            fireDataRemovedAll(getRowsData(diff.removedRows));
+        }
+
+        if (!diff.addedRows.isEmpty()) {
+            fireDataAddedAll(getRowsData(diff.addedRows));
+        }
+
+        if (!diff.changes.isEmpty()) {
+            fireDataChangedAll(getRowsData(diff.changes.keySet()));
+        }
+    }
+
+    private static <T> List<T> getRowsData(Collection<Row<T>> rows) {
+        final List<T> result = new ArrayList<>(rows.size());
+        for (Row<T> row : rows) {
+            result.add(row.getData());
+        }
+
+        return result;
+    }
+
+    public void add(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                addItem(item);
+            }
+        });
+    }
+
+    private void addItem(T item) {
+        checkNotPaged();
+
+        if (sorter != null) {
+            int index = findSortedIndex(item);
+
+            insert(item, index);
+
+        } else if (compactRows != null) {
+            insert(item, compactRows.size());
+
+        } else {
+            insert(item, rows.size());
+        }
+    }
+
+    private int findSortedIndex(T item) {
+        // upper bound: equal items are placed after existing ones to keep insertion order
+        int low = 0;
+        int high = rows.size();
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final Row<T> row = rows.get(middle);
+
+            if (sorter.compare(item, row.getData()) < 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return low;
+    }
+
+    @SafeVarargs
+    public final void addAll(T... items) {
+        addAll(Arrays.asList(items));
+    }
+
+    public void addAll(Collection<T> items) {
+        // copied before posting, the caller may change the collection afterwards
+        final List<T> itemsCopy = new ArrayList<>(items);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                addItems(itemsCopy);
+            }
+        });
+    }
+
+    private void addItems(List<T> items) {
+        checkNotPaged();
+        holdUntilFrame();
+
+        if (items.isEmpty()) {
+            return;
+        }
+
+        if (compactRows != null) {
+            final int startPosition = compactRows.size();
+            insertCompactRows(startPosition, items);
+            modificationCount++;
+
+            dispatcher.hold();
+            dispatcher.onInserted(startPosition, items.size());
+            notifyRangeNeighboursRedraw(startPosition, items.size(), compactRows.size());
+            dispatcher.flush();
+
+            fireDataAddedAll(items);
+            return;
+        }
+
+        final List<Row<T>> newRows = new ArrayList<>(items.size());
+        for (T item : items) {
+            final Row<T> row = new Row<>(item);
+            newRows.add(row);
+            indexRow(row);
+        }
+
+        if (sorter != null) {
+            final Comparator<Row<T>> rowComparator = createRowComparator(sorter);
+            Collections.sort(newRows, rowComparator);
+
+            rows.mergeSorted(newRows, rowComparator, rowFilter);
+
+        } else {
+            rows.addAll(newRows, rowFilter);
+        }
+        modificationCount++;
+
+        if (!isBatching()) {
+            notifyRowsInserted(newRows);
+        }
+
+        fireDataAddedAll(items);
+    }
+
+    private void notifyRowsInserted(List<Row<T>> insertedRows) {
+        final int[] positions = new int[insertedRows.size()];
+        int positionsCount = 0;
+        for (Row<T> row : insertedRows) {
+            final int position = rows.shownIndexOf(row);
+            if (position >= 0) {
+                positions[positionsCount++] = position;
+            }
+        }
+
+        Arrays.sort(positions, 0, positionsCount);
+
+        dispatcher.hold();
+
+        int rangeStart = 0;
+        for (int i = 1; i <= positionsCount; i++) {
+            if ((i < positionsCount) && (positions[i] == positions[i - 1] + 1)) {
+                continue;
+            }
+
+            final int startPosition = positions[rangeStart];
+            final int count = i - rangeStart;
+            dispatcher.onInserted(startPosition, count);
+            notifyRangeNeighboursRedraw(startPosition, count, rows.shownSize());
+
+            rangeStart = i;
+        }
+
+        dispatcher.flush();
+    }
+
+    public void add(final T item, final int modelPosition) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                addItem(item, modelPosition);
+            }
+        });
+    }
+
+    private void addItem(T item, int modelPosition) {
+        checkNotPaged();
+
+        if (sorter != null) {
+            throw new IllegalStateException("Cannot use explicit index insert with sorter");
+        }
+
+        insert(item, modelPosition);
+    }
+
+    private void insert(T item, int modelPosition) {
+        holdUntilFrame();
+
+        if (compactRows != null) {
+            insertCompactRows(modelPosition, Collections.singletonList(item));
+            modificationCount++;
+
+            dispatcher.onInserted(modelPosition, 1);
+            notifyNeighboursRedraw(modelPosition, false);
+
+            fireDataAdded(item);
+            return;
+        }
+
+        final Row<T> row = new Row<>(item);
+        rows.add(modelPosition, row, isMatching(row));
+        indexRow(row);
+        modificationCount++;
+
+        if (isBatching()) {
+            fireDataAdded(item);
+            return;
+        }
+
+        final int viewPosition = rows.shownIndexOf(row);
+        if (viewPosition >= 0) {
+            dispatcher.onInserted(viewPosition, 1);
+
+            notifyNeighboursRedraw(viewPosition, false);
+        }
+
+        fireDataAdded(item);
+    }
+
+    public T remove(int viewPosition) {
+        checkMainThread();
+        checkNotPaged();
+        holdUntilFrame();
+
+        if (compactRows != null) {
+            final T item = compactRows.get(viewPosition);
+            removeCompactRow(viewPosition);
+            modificationCount++;
+
+            dispatcher.onRemoved(viewPosition, 1);
+            notifyNeighboursRedraw(viewPosition, true);
+            fireDataRemoved(item);
+
+            return item;
+        }
+
+        final Row<T> row = getShownRow(viewPosition);
+        rows.remove(row);
+        unindexRow(row);
+        selection.release(row);
+        modificationCount++;
+
+        if (isBatching()) {
+            fireDataRemoved(row.getData());
+            return row.getData();
+        }
+
+        dispatcher.onRemoved(viewPosition, 1);
+        notifyNeighboursRedraw(viewPosition, true);
+        fireDataRemoved(row.getData());
+
+        return row.getData();
+    }
+
+    public void update(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                updateItem(item);
+            }
+        });
+    }
+
+    private void updateItem(T item) {
+        checkNotPaged();
+        holdUntilFrame();
+
+        final List<Row<T>> itemRows = findRows(item);
+        modificationCount++;
+
+        for (Row<T> row : itemRows) {
+            row.setData(item);
+
+            if (compactRows != null) {
+                final int position = getNotifiedPosition(row);
+                dispatcher.onChanged(position, 1, ChangeType.DATA);
+                notifyNeighboursRedraw(position, false);
+                continue;
+            }
+
+            updateSearchText(row);
+
+            final int oldPosition = rows.shownIndexOf(row);
+
+            if (sorter != null) {
+                rows.remove(row);
+                rows.add(findSortedIndex(item), row, isMatching(row));
+            } else {
+                rows.setShown(row, isMatching(row));
+            }
+
+            if (isBatching()) {
+                markBatchChange(row, ChangeType.DATA);
+            } else {
+                notifyRowUpdated(row, oldPosition);
+            }
+        }
+
+        fireDataChanged(item);
+    }
+
+    private void notifyRowUpdated(Row<T> row, int oldPosition) {
+        final int newPosition = rows.shownIndexOf(row);
+
+        if ((oldPosition < 0) && (newPosition < 0)) {
+            return;
+        }
+
+        if (newPosition < 0) {
+            dispatcher.onRemoved(oldPosition, 1);
+            notifyNeighboursRedraw(oldPosition, true);
+            return;
+        }
+
+        if (oldPosition < 0) {
+            dispatcher.onInserted(newPosition, 1);
+            notifyNeighboursRedraw(newPosition, false);
+            return;
+        }
+
+        if (oldPosition != newPosition) {
+            dispatcher.onMoved(oldPosition, newPosition);
+
+            // former neighbours of the moved row
+            if (oldPosition < newPosition) {
+                notifyNeighboursRedraw(oldPosition, true);
+            } else {
+                notifyNeighboursRedraw(oldPosition + 1, true);
+            }
+        }
+
+        dispatcher.onChanged(newPosition, 1, ChangeType.DATA);
+        notifyNeighboursRedraw(newPosition, false);
+    }
+
+    public void remove(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                removeItem(item);
+            }
+        });
+    }
+
+    private void removeItem(T item) {
+        checkNotPaged();
+        holdUntilFrame();
+
+        final List<Row<T>> itemRows = findRows(item);
+
+        if (compactRows != null) {
+            modificationCount++;
+
+            // from the end, so that positions of the remaining rows stay valid
+            for (int i = itemRows.size() - 1; i >= 0; i--) {
+                final int position = getNotifiedPosition(itemRows.get(i));
+                removeCompactRow(position);
+
+                dispatcher.onRemoved(position, 1);
+                notifyNeighboursRedraw(position, true);
+            }
+
+            fireDataRemoved(item);
+            return;
+        }
+
+        rowsIndex.removeAll(getKey(item));
+        modificationCount++;
+
+        for (Row<T> row : itemRows) {
+            final int index = rows.shownIndexOf(row);
+            rows.remove(row);
+            releaseRowId(row);
+            searchIndex.remove(row);
+            selection.release(row);
+
+            if ((index == -1) || isBatching()) {
+                continue;
+            }
+
+            dispatcher.onRemoved(index, 1);
+            notifyNeighboursRedraw(index, true);
+        }
+
+        fireDataRemoved(item);
+    }
+
+    public List<T> getAllItems() {
+        checkMainThread();
+
+        if (compactRows != null) {
+            final List<T> result = new ArrayList<>(compactRows.size());
+            for (int i = 0; i < compactRows.size(); i++) {
+                result.add(compactRows.get(i));
+            }
+
+            return result;
+        }
+
+        List<T> result = new ArrayList<>(rows.size());
+
+        for (Row<T> row : rows.toList()) {
+            result.add(row.getData());
+        }
+
+        return result;
+    }
+
+    public List<T> getSelectedItems() {
+        checkMainThread();
+
+        final List<Row<T>> selectedRows = getSelectedRows();
+        if ((selectedRows.size() > 1) && (compactRows == null)) {
+            Collections.sort(selectedRows, new Comparator<Row<T>>() {
+                @Override
+                public int compare(Row<T> o1, Row<T> o2) {
+                    return rows.indexOf(o1) - rows.indexOf(o2);
+                }
+            });
+        }
+
+        final List<T> result = new ArrayList<>(selectedRows.size());
+        for (Row<T> row : selectedRows) {
+            if (row.isEnabled()) {
+                result.add(row.getData());
+            }
+        }
+
+        return result;
+    }
+
+    public int getSelectedCount() {
+        checkMainThread();
+
+        if (compactRows != null) {
+            return compactRows.getSelectedCount();
+        }
+
+        return selection.getSelectedCount();
+    }
+
+    // rows of compact storage are returned in their order
+    private List<Row<T>> getSelectedRows() {
+        if (compactRows == null) {
+            return selection.getSelected();
+        }
+
+        final List<Row<T>> result = new ArrayList<>(compactRows.getSelectedCount());
+        for (int i = 0; (i < compactRows.size()) && (result.size() < compactRows.getSelectedCount()); i++) {
+            if (compactRows.isSelected(i)) {
+                result.add(getCompactRow(i));
+            }
+        }
+
+        return result;
+    }
+
+    public void addDataListener(DataListener<T> listener) {
+        dataListeners.add(listener);
+    }
+
+    public void addSelectionListener(SelectionListener<T> listener) {
+        selectionListeners.add(listener);
+    }
+
+    public void selectItem(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                setItemSelected(item, true);
+            }
+        });
+    }
+
+    public void deselectItem(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                setItemSelected(item, false);
+            }
+        });
+    }
+
+    private void setItemSelected(T item, boolean selected) {
+        if (selected && (selectionMode == SelectionMode.NONE)) {
+            return;
+        }
+
+        holdUntilFrame();
+        holdEvents();
+        try {
+            updateItemSelection(item, selected);
+        } finally {
+            flushEvents();
+        }
+    }
+
+    private void updateItemSelection(T item, boolean selected) {
+        final List<Row<T>> rows = findRows(item);
+        for (Row<T> row : rows) {
+            if (selected && !row.isEnabled()) {
+                continue;
+            }
+
+            if (row.isSelected() == selected) {
+                continue;
+            }
+
+            setRowSelected(row, selected);
+
+            notifySelectionChanged(row);
+
+            fireSelectionChanged(item, selected);
+        }
+
+        if (selected && (selectionMode == SelectionMode.SINGLE)) {
+            for (Row<T> anotherRow : getSelectedRows()) {
+                if (rows.contains(anotherRow)) {
+                    continue;
+                }
+
+                setRowSelected(anotherRow, false);
+
+                notifySelectionChanged(anotherRow);
+
+                // plain selection listeners are not told about implicit deselection
+                addPendingSelectionChange(anotherRow.getData(), false);
+            }
+        }
+    }
+
+    private void setRowSelected(Row<T> row, boolean selected) {
+        row.setSelected(selected);
+
+        // compact storage counts the selected rows itself
+        if (compactRows == null) {
+            selection.setSelected(row, selected);
+        }
+    }
+
+    private void notifySelectionChanged(Row<T> row) {
+        if (isBatching()) {
+            markBatchChange(row, ChangeType.SELECTION);
+            return;
+        }
+
+        final int position = getNotifiedPosition(row);
+        if (position >= 0) {
+            dispatcher.onChanged(position, 1, ChangeType.SELECTION);
+
+            // selection doesn't change sections
+            if (redrawNeighbours) {
+                notifyNeighboursRedraw(position, false);
+            }
+        }
+    }
+
+    private void notifyRangeNeighboursRedraw(int startPosition, int count, int itemCount) {
+        if (!redrawsNeighbours()) {
+            return;
+        }
+
+        if (startPosition > 0) {
+            dispatcher.onChanged(startPosition - 1, 1, ChangeType.REDRAW);
+        }
+
+        if (startPosition + count < itemCount) {
+            dispatcher.onChanged(startPosition + count, 1, ChangeType.REDRAW);
+        }
+    }
+
+    private void notifyNeighboursRedraw(int rowIndex, boolean rowDeleted) {
+        if (!redrawsNeighbours()) {
+            return;
+        }
+
+        if (rowIndex > 0) {
+            dispatcher.onChanged(rowIndex - 1, 1, ChangeType.REDRAW);
+        }
+
+        int nextRowIndex = rowDeleted ? rowIndex : rowIndex + 1;
+        if (nextRowIndex < getShownCount()) {
+            dispatcher.onChanged(nextRowIndex, 1, ChangeType.REDRAW);
+        }
+    }
+
+    public void disableItem(final T item) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                disableRows(item);
+            }
+        });
+    }
+
+    private void disableRows(T item) {
+        holdUntilFrame();
+
+        final List<Row<T>> itemRows = findRows(item);
+        final List<Integer> changedPositions = new ArrayList<>();
+
+        holdEvents();
+        try {
+            for (Row<T> row : itemRows) {
+                row.setEnabled(false);
+
+                if (row.isSelected()) {
+                    setRowSelected(row, false);
+
+                    fireSelectionChanged(item, false);
+                }
+
+                if (isBatching()) {
+                    markBatchChange(row, ChangeType.ENABLE);
+                    continue;
+                }
+
+                final int index = getNotifiedPosition(row);
+                if (index >= 0) {
+                    changedPositions.add(index);
+                }
+            }
+        } finally {
+            flushEvents();
+        }
+
+        for (Integer position : changedPositions) {
+            dispatcher.onChanged(position, 1, ChangeType.ENABLE);
+        }
+    }
+
+    private List<Row<T>> findRows(T item) {
+        if (compactRows != null) {
+            final List<Row<T>> result = new ArrayList<>(1);
+            for (int i = 0; i < compactRows.size(); i++) {
+                if (Objects.equal(compactRows.get(i), item)) {
+                    result.add(getCompactRow(i));
+                }
+            }
+
+            return result;
+        }
+
+        synchronized (rowsIndex) {
+            return new ArrayList<>(rowsIndex.get(getKey(item)));
+        }
+    }
+
+    private Object getKey(T item) {
+        if (keyFunction != null) {
+            return keyFunction.apply(item);
+        }
+
+        return item;
+    }
+
+    private void indexRow(Row<T> row) {
+        final Object key = getKey(row.getData());
+        rowsIndex.put(key, row);
+        updateSearchText(row);
+
+        if (keyFunction == null) {
+            return;
+        }
+
+        // collisions and rows sharing the same key are resolved by probing,
+        // so an item gets the same id every time it's added in the same order
+        long id = hashKey(key);
+        while ((id == RecyclerView.NO_ID) || rowsById.containsKey(id)) {
+            id += ID_PROBE_STEP;
+        }
+
+        row.setId(id);
+        rowsById.put(id, row);
+    }
+
+    private void unindexRow(Row<T> row) {
+        final boolean removed = rowsIndex.remove(getKey(row.getData()), row);
+
+        if (!removed) {
+            // item was mutated in place and its key doesn't match anymore
+            synchronized (rowsIndex) {
+                rowsIndex.values().remove(row);
+            }
+        }
+
+        releaseRowId(row);
+        searchIndex.remove(row);
+    }
+
+    private void updateSearchText(Row<T> row) {
+        if (searchTextFunction != null) {
+            searchIndex.update(row, searchTextFunction.apply(row.getData()));
+        }
+    }
+
+    private void releaseRowId(Row<T> row) {
+        if (rowsById.get(row.getId()) == row) {
+            rowsById.remove(row.getId());
+        }
+    }
+
+    private static long hashKey(Object key) {
+        if (key == null) {
+            return 0;
+        }
+
+        if ((key instanceof Long) || (key instanceof Integer)
+                || (key instanceof Short) || (key instanceof Byte)) {
+            return ((Number) key).longValue();
+        }
+
+        if (key instanceof CharSequence) {
+            return Hashing.murmur3_128().hashUnencodedChars((CharSequence) key).asLong();
+        }
+
+        return Hashing.murmur3_128().hashInt(key.hashCode()).asLong();
+    }
+
+    private void fireDataAdded(final T item) {
+        fireDataEvent(DataEventType.ADDED, item);
+    }
+
+    private void fireDataAddedAll(final List<T> items) {
+        fireDataEvents(DataEventType.ADDED, items);
+    }
+
+    private void fireDataChanged(final T changedItem) {
+        fireDataEvent(DataEventType.CHANGED, changedItem);
+    }
+
+    private void fireDataChangedAll(final List<T> changedItems) {
+        fireDataEvents(DataEventType.CHANGED, changedItems);
+    }
+
+    private void fireDataRemoved(final T item) {
+        fireDataEvent(DataEventType.REMOVED, item);
+    }
+
+    private void fireDataRemovedAll(final List<T> items) {
+        fireDataEvents(DataEventType.REMOVED, items);
+    }
+
+    private void fireDataEvent(DataEventType type, T item) {
+        final boolean held = areEventsHeld();
+
+        for (DataListener<T> listener : dataListeners) {
+            if (held && (listener instanceof BatchDataListener)) {
+                continue;
+            }
+
+            notifyDataListener(listener, type, item);
+        }
+
+        if (held) {
+            addPendingDataEvent(type, Collections.singletonList(item));
+        }
+    }
+
+    private void fireDataEvents(DataEventType type, List<T> items) {
+        final boolean held = areEventsHeld();
+
+        for (DataListener<T> listener : dataListeners) {
+            if (listener instanceof BatchDataListener) {
+                if (!held) {
+                    notifyBatchDataListener((BatchDataListener<T>) listener, type, items);
+                }
+
+            } else {
+                for (T item : items) {
+                    notifyDataListener(listener, type, item);
+                }
+            }
+        }
+
+        if (held) {
+            addPendingDataEvent(type, items);
+        }
+    }
+
+    private static <T> void notifyDataListener(DataListener<T> listener, DataEventType type, T item) {
+        switch (type) {
+            case ADDED:
+                listener.added(item);
+                break;
+            case REMOVED:
+                listener.removed(item);
+                break;
+            case CHANGED:
+                listener.changed(item);
+                break;
+        }
+    }
+
+    private static <T> void notifyBatchDataListener(BatchDataListener<T> listener, DataEventType type, List<T> items) {
+        switch (type) {
+            case ADDED:
+                listener.addedAll(items);
+                break;
+            case REMOVED:
+                listener.removedAll(items);
+                break;
+            case CHANGED:
+                listener.changedAll(items);
+                break;
+        }
+    }
+
+    private void addPendingDataEvent(DataEventType type, List<T> items) {
+        if (!hasListeners(dataListeners, BatchDataListener.class)) {
+            return;
+        }
+
+        // consecutive events of the same type are merged, so the order of additions and removals is kept
+        final int lastIndex = pendingDataEvents.size() - 1;
+        if ((lastIndex >= 0) && (pendingDataEvents.get(lastIndex).type == type)) {
+            pendingDataEvents.get(lastIndex).items.addAll(items);
+        } else {
+            pendingDataEvents.add(new PendingDataEvent<>(type, new ArrayList<>(items)));
+        }
+    }
+
+    private void fireSelectionChanged(final T item, final boolean selected) {
+        final boolean held = areEventsHeld();
+
+        for (SelectionListener<T> listener : selectionListeners) {
+            if (held && (listener instanceof BatchSelectionListener)) {
+                continue;
+            }
+
+            listener.selectionChanged(item, selected);
+        }
+
+        if (held) {
+            addPendingSelectionChange(item, selected);
+        }
+    }
+
+    // Collects selection changes for BatchSelectionListeners, must be called while events are held
+    private void addPendingSelectionChange(T item, boolean selected) {
+        if (!hasListeners(selectionListeners, BatchSelectionListener.class)) {
+            return;
+        }
+
+        // selecting and deselecting the same item within a batch cancel each other
+        if (selected) {
+            if (!pendingDeselected.remove(item)) {
+                pendingSelected.add(item);
+            }
+        } else {
+            if (!pendingSelected.remove(item)) {
+                pendingDeselected.add(item);
+            }
+        }
+    }
+
+    private static boolean hasListeners(List<?> listeners, Class<?> listenerClass) {
+        for (Object listener : listeners) {
+            if (listenerClass.isInstance(listener)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean areEventsHeld() {
+        return isBatching() || (heldEventsDepth > 0);
+    }
+
+    private void holdEvents() {
+        heldEventsDepth++;
+    }
+
+    private void flushEvents() {
+        heldEventsDepth--;
+
+        if (!areEventsHeld()) {
+            dispatchPendingEvents();
+        }
+    }
+
+    private void dispatchPendingEvents() {
+        if (!pendingDataEvents.isEmpty()) {
+            final List<PendingDataEvent<T>> events = new ArrayList<>(pendingDataEvents);
+            pendingDataEvents.clear();
+
+            for (PendingDataEvent<T> event : events) {
+                for (DataListener<T> listener : dataListeners) {
+                    if (listener instanceof BatchDataListener) {
+                        notifyBatchDataListener((BatchDataListener<T>) listener, event.type, event.items);
+                    }
+                }
+            }
+        }
+
+        if (!pendingSelected.isEmpty() || !pendingDeselected.isEmpty()) {
+            final Set<T> selected = new LinkedHashSet<>(pendingSelected);
+            final Set<T> deselected = new LinkedHashSet<>(pendingDeselected);
+            pendingSelected.clear();
+            pendingDeselected.clear();
+
+            for (SelectionListener<T> listener : selectionListeners) {
+                if (listener instanceof BatchSelectionListener) {
+                    ((BatchSelectionListener<T>) listener).selectionChanged(selected, deselected);
+                }
+            }
+        }
+    }
+
+    public void setCustomFactory(CellFactory<T, View> newFactory, int viewPosition) {
+        checkMainThread();
+
+        final Row<T> row = getShownRow(viewPosition);
+
+        final CellFactory<T, View> existingFactory = row.getCustomCellFactory();
+        if (existingFactory != null) {
+            releaseViewType(existingFactory);
+        }
+
+        row.setCustomCellFactory(newFactory);
+
+        if (isBatching()) {
+            markBatchChange(row, null);
+            return;
+        }
+
+        dispatcher.onChanged(viewPosition, 1, null);
+    }
+
+    public void beginBatch() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                openBatch();
+            }
+        });
+    }
+
+    private void openBatch() {
+        checkNotPaged();
+        checkNotCompact();
+
+        if (batchDepth == 0) {
+            batchShownRows = rows.shownToList();
+            batchChanges.clear();
+        }
+
+        batchDepth++;
+    }
+
+    public void commit() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                commitBatch();
+            }
+        });
+    }
+
+    private void commitBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("No batch to commit");
+        }
+
+        batchDepth--;
+        if (batchDepth > 0) {
+            return;
+        }
+
+        final List<Row<T>> oldRows = batchShownRows;
+        final List<Row<T>> newRows = rows.shownToList();
+        final Map<Row<T>, ChangeType> changes = new HashMap<>(batchChanges);
+
+        batchShownRows = null;
+        batchChanges.clear();
+
+        final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                new RowsDiffCallback<>(oldRows, newRows, changes),
+                sorter != null);
+        dispatcher.hold();
+        diffResult.dispatchUpdatesTo(dispatcher);
+        notifyChangedNeighbours(oldRows, newRows, changes.keySet());
+        dispatcher.flush();
+
+        if (!areEventsHeld()) {
+            dispatchPendingEvents();
+        }
+    }
+
+    public void runBatch(final Runnable runnable) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                openBatch();
+                try {
+                    runnable.run();
+                } finally {
+                    commitBatch();
+                }
+            }
+        });
+    }
+
+    public boolean isBatching() {
+        return batchDepth > 0;
+    }
+
+    // Null disables metrics collection
+    public void setMetrics(CellMetrics metrics) {
+        checkMainThread();
+
+        if (this.metrics != null) {
+            unregisterAdapterDataObserver(this.metrics.notificationsObserver);
+        }
+
+        this.metrics = metrics;
+
+        if (metrics != null) {
+            registerAdapterDataObserver(metrics.notificationsObserver);
+        }
+    }
+
+    // When enabled, notifications are held and dispatched merged on the next frame, before its layout.
+    // Unlike a batch, the adapter reports the current rows meanwhile, so the list mustn't be laid out
+    // or scrolled by anything else between a modification and the next frame.
+    public void setCoalesceNotifications(boolean coalesceNotifications) {
+        checkMainThread();
+
+        this.coalesceNotifications = coalesceNotifications;
+
+        if (!coalesceNotifications) {
+            flushFrameHold();
+        }
+    }
+
+    private void holdUntilFrame() {
+        if (!coalesceNotifications || frameHoldPending) {
+            return;
+        }
+
+        dispatcher.hold();
+        frameHoldPending = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            FrameCommitCallback.post(frameFlush);
         } else {
-            shownRows = new ArrayList<>(rows);
+            mainHandler.post(frameFlush);
         }
     }
 
-    public T getItem(int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
-        return (row != null) ? row.getData() : null;
-    }
-
-    public void clear() {
-        rows.clear();
+    private void flushFrameHold() {
+        if (!frameHoldPending) {
+            return;
+        }
 
-        applyFilter();
+        frameHoldPending = false;
+        dispatcher.flush();
+    }
 
-        customFactories.clear();
+    private void markBatchChange(Row<T> row, ChangeType changeType) {
+        if (!batchChanges.containsKey(row)) {
+            batchChanges.put(row, changeType);
 
-        notifyDataSetChanged();
+        } else if (batchChanges.get(row) != changeType) {
+            // different kinds of change, the cell has to be filled from scratch
+            batchChanges.put(row, null);
+        }
     }
 
-    public void add(T item) {
-        if (sorter != null) {
-            int index = findSortedIndex(item);
-
-            insert(item, index);
+    private void notifyChangedNeighbours(List<Row<T>> oldRows, List<Row<T>> newRows, Set<Row<T>> changedRows) {
+        if (!redrawsNeighbours()) {
+            return;
+        }
 
-        } else {
-            insert(item, rows.size());
+        final Map<Row<T>, Integer> oldPositions = new IdentityHashMap<>(oldRows.size());
+        for (int i = 0; i < oldRows.size(); i++) {
+            oldPositions.put(oldRows.get(i), i);
         }
-    }
 
-    private int findSortedIndex(T item) {
-        int index = rows.size();
+        for (int i = 0; i < newRows.size(); i++) {
+            final Row<T> row = newRows.get(i);
 
-        for (int i = 0; i < rows.size(); i++) {
-            final Row<T> row = rows.get(i);
+            final Integer oldPosition = oldPositions.get(row);
+            if ((oldPosition == null) || changedRows.contains(row)) {
+                continue;
+            }
 
-            if (sorter.compare(item, row.getData()) < 0) {
-                index = i;
+            final Row<T> oldPrev = (oldPosition > 0) ? oldRows.get(oldPosition - 1) : null;
+            final Row<T> oldNext = (oldPosition < oldRows.size() - 1) ? oldRows.get(oldPosition + 1) : null;
+            final Row<T> newPrev = (i > 0) ? newRows.get(i - 1) : null;
+            final Row<T> newNext = (i < newRows.size() - 1) ? newRows.get(i + 1) : null;
 
-                break;
+            if ((oldPrev != newPrev) || (oldNext != newNext)
+                    || changedRows.contains(newPrev) || changedRows.contains(newNext)) {
+                dispatcher.onChanged(i, 1, ChangeType.REDRAW);
             }
         }
-        return index;
     }
 
-    @SafeVarargs
-    public final void addAll(T... items) {
-        for (T item : items) {
-            add(item);
+    private enum DataEventType {ADDED, REMOVED, CHANGED}
+
+    private static class FilterState<T> {
+        private final Predicate<T> filter;
+        private final boolean[] shown;
+
+        private FilterState(Predicate<T> filter, boolean[] shown) {
+            this.filter = filter;
+            this.shown = shown;
         }
     }
 
-    public void addAll(Collection<T> items) {
-        for (T item : items) {
-            add(item);
+    // answers the same as the search index, for rows added or updated while the query is set
+    private static class SearchFilter<T> implements Predicate<T> {
+        private final Function<T, String> textFunction;
+        private final String query;
+        private final String normalizedQuery;
+
+        private SearchFilter(Function<T, String> textFunction, String query) {
+            this.textFunction = textFunction;
+            this.query = query;
+            this.normalizedQuery = TextIndex.normalize(query);
         }
-    }
 
-    public void add(T item, int modelPosition) {
-        if (sorter != null) {
-            throw new IllegalStateException("Cannot use explicit index insert with sorter");
+        @Override
+        public boolean apply(T item) {
+            return TextIndex.normalize(textFunction.apply(item)).contains(normalizedQuery);
         }
+    }
 
-        insert(item, modelPosition);
+    private static class PendingDataEvent<T> {
+        private final DataEventType type;
+        private final List<T> items;
+
+        private PendingDataEvent(DataEventType type, List<T> items) {
+            this.type = type;
+            this.items = items;
+        }
     }
 
-    private void insert(T item, int modelPosition) {
-        final Row<T> row = new Row<>(item);
-        rows.add(modelPosition, row);
+    private static class ItemsDiff<T> {
+        private final List<Row<T>> newRows = new ArrayList<>();
+        private final List<T> newData = new ArrayList<>();
+        private final List<Row<T>> addedRows = new ArrayList<>();
+        private final List<Row<T>> removedRows = new ArrayList<>();
+        private final Set<Row<T>> hiddenRows = new HashSet<>();
+        private final Map<Row<T>, ChangeType> changes = new HashMap<>();
+        private List<Row<T>> oldShownRows;
+        private List<Row<T>> newShownRows;
+        private DiffUtil.DiffResult result;
+    }
 
-        applyFilter();
+    private static class RowsDiffCallback<T> extends DiffUtil.Callback {
+        private final List<Row<T>> oldRows;
+        private final List<Row<T>> newRows;
+        private final Map<Row<T>, ChangeType> changes;
 
-        final int viewIndex = rows.indexOf(row);
-        if (viewIndex >= 0) {
-            notifyItemInserted(modelPosition);
+        public RowsDiffCallback(List<Row<T>> oldRows, List<Row<T>> newRows, Map<Row<T>, ChangeType> changes) {
+            this.oldRows = oldRows;
+            this.newRows = newRows;
+            this.changes = changes;
+        }
 
-            notifyNeighboursRedraw(viewIndex, false);
+        @Override
+        public int getOldListSize() {
+            return oldRows.size();
         }
 
-        fireDataAdded(item);
-    }
+        @Override
+        public int getNewListSize() {
+            return newRows.size();
+        }
 
-    public T remove(int viewPosition) {
-        final Row<T> row = shownRows.get(viewPosition);
-        rows.remove(row);
-        applyFilter();
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldRows.get(oldItemPosition) == newRows.get(newItemPosition);
+        }
 
-        notifyItemRemoved(viewPosition);
-        notifyNeighboursRedraw(viewPosition, true);
-        fireDataRemoved(row.getData());
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return !changes.containsKey(oldRows.get(oldItemPosition));
+        }
 
-        return row.getData();
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return changes.get(oldRows.get(oldItemPosition));
+        }
     }
 
-    public void update(T item) {
-        final List<Row<T>> itemRows = findRows(item);
-        for (Row<T> row : itemRows) {
-            row.setData(item);
-        }
+    private static class Row<T> extends FilteredList.Node implements SelectionModel.Slotted, TextIndex.Indexed {
 
-        Integer minChangedIndex = shownRows.size();
-        Integer maxChangedIndex = -1;
+        private static final AtomicLong idCounter = new AtomicLong(1);
 
-        if (sorter != null) {
-            for (Row<T> itemRow : itemRows) {
-                rows.remove(itemRow);
-            }
+        private static final byte FLAG_SELECTED = 1;
+        private static final byte FLAG_ENABLED = 2;
 
-            for (Row<T> itemRow : itemRows) {
-                final int index = findSortedIndex(itemRow.getData());
-                rows.add(index, itemRow);
-            }
+        // data and flags are kept in the row itself, the cell is created only once the row gets bound
+        // and reads them from the row
+        private T data;
+        private byte flags = FLAG_ENABLED;
+        private RowCell<T> cell;
+        private CellFactory<T, View> customCellFactory;
+        private long id = idCounter.getAndIncrement();
+        private int selectionSlot = -1;
+        private int textSlot = -1;
+        private Object sectionKey;
+        private int sectionGeneration = 0;
 
-            for (Row<T> row : itemRows) {
-                final int index = shownRows.indexOf(row);
-                if (index == -1) {
-                    continue;
-                }
+        public Row(T data) {
+            this.data = data;
+        }
 
-                if (minChangedIndex > index) {
-                    minChangedIndex = index;
-                }
-                if (maxChangedIndex < index) {
-                    maxChangedIndex = index;
-                }
+        public RowCell<T> getCell(FactoryBasedAdapter<T> adapter) {
+            if (cell == null) {
+                cell = new RowCell<>(adapter, this);
             }
 
-            applyFilter();
+            return cell;
         }
 
+        public void setData(T data) {
+            this.data = data;
 
-        for (Row<T> row : itemRows) {
-            final int index = shownRows.indexOf(row);
-            if (index == -1) {
-                continue;
-            }
+            sectionGeneration = 0;
+        }
 
-            if (minChangedIndex > index) {
-                minChangedIndex = index;
-            }
-            if (maxChangedIndex < index) {
-                maxChangedIndex = index;
-            }
+        public T getData() {
+            return data;
         }
 
-        for (int i = minChangedIndex; i < maxChangedIndex + 1; i++) {
-            notifyItemChanged(i, ChangeType.DATA);
+        public CellFactory<T, View> getCustomCellFactory() {
+            return customCellFactory;
         }
 
-        fireDataChanged(item);
-    }
+        public <V extends View> void setCustomCellFactory(CellFactory<T, V> customCellFactory) {
+            this.customCellFactory = (CellFactory<T, View>) customCellFactory;
+        }
 
-    public void remove(T item) {
-        final List<Row<T>> itemRows = findRows(item);
+        public boolean isSelected() {
+            return (flags & FLAG_SELECTED) != 0;
+        }
 
-        this.rows.removeAll(itemRows);
+        public void setSelected(boolean selected) {
+            setFlag(FLAG_SELECTED, selected);
+        }
 
-        for (Row<T> row : itemRows) {
-            final int index = shownRows.indexOf(row);
-            if (index == -1) {
-                continue;
-            }
+        public boolean isEnabled() {
+            return (flags & FLAG_ENABLED) != 0;
+        }
 
-            shownRows.remove(index);
-            notifyItemRemoved(index);
-            notifyNeighboursRedraw(index, true);
+        public void setEnabled(boolean enabled) {
+            setFlag(FLAG_ENABLED, enabled);
         }
 
-        fireDataRemoved(item);
-    }
+        private void setFlag(byte flag, boolean value) {
+            flags = (byte) (value ? (flags | flag) : (flags & ~flag));
+        }
 
-    public List<T> getAllItems() {
-        List<T> result = new ArrayList<>(rows.size());
+        public long getId() {
+            return id;
+        }
 
-        for (Row<T> row : rows) {
-            result.add(row.getData());
+        public void setId(long id) {
+            this.id = id;
         }
 
-        return result;
-    }
+        @Override
+        public int getSelectionSlot() {
+            return selectionSlot;
+        }
 
-    public List<T> getSelectedItems() {
-        List<T> result = new ArrayList<>();
+        @Override
+        public void setSelectionSlot(int selectionSlot) {
+            this.selectionSlot = selectionSlot;
+        }
 
-        for (Row<T> row : rows) {
-            if ((row.isSelected() && (row.isEnabled()))) {
-                result.add(row.getData());
-            }
+        @Override
+        public int getTextSlot() {
+            return textSlot;
         }
 
-        return result;
+        @Override
+        public void setTextSlot(int textSlot) {
+            this.textSlot = textSlot;
+        }
     }
 
-    public void addDataListener(DataListener<T> listener) {
-        dataListeners.add(listener);
-    }
+    // Cell state is stored only in the row, so that the two can't diverge
+    private static class RowCell<T> extends Cell<T> {
+        private final FactoryBasedAdapter<T> adapter;
+        private final Row<T> row;
+        private CellContext<T> lastContext;
 
-    public void addSelectionListener(SelectionListener<T> listener) {
-        selectionListeners.add(listener);
-    }
+        private RowCell(FactoryBasedAdapter<T> adapter, Row<T> row) {
+            super(null);
 
-    public void selectItem(T item) {
-        setItemSelected(item, true);
-    }
+            this.adapter = adapter;
+            this.row = row;
+        }
 
-    public void deselectItem(T item) {
-        setItemSelected(item, false);
-    }
+        @Override
+        public T getData() {
+            return row.getData();
+        }
 
-    private void setItemSelected(T item, boolean selected) {
-        if (selected && (selectionMode == SelectionMode.NONE)) {
-            return;
+        @Override
+        public void setData(T data) {
+            row.setData(data);
         }
 
-        final List<Row<T>> rows = findRows(item);
-        for (Row<T> row : rows) {
-            if (selected && !row.isEnabled()) {
-                continue;
-            }
+        @Override
+        public boolean isSelected() {
+            return row.isSelected();
+        }
 
-            if (row.isSelected() == selected) {
-                continue;
+        @Override
+        public void setSelected(boolean selected) {
+            // goes through the adapter, so that selection model, listeners and single mode stay in sync
+            if (row.isSelected() != selected) {
+                adapter.setItemSelected(row.getData(), selected);
             }
+        }
 
-            row.setSelected(selected);
+        @Override
+        public boolean isEnabled() {
+            return row.isEnabled();
+        }
 
-            final int position = shownRows.indexOf(row);
-            if (position >= 0) {
-                notifyItemChanged(position, ChangeType.SELECTION);
-                notifyNeighboursRedraw(position, false);
-            }
+        @Override
+        public void setEnabled(boolean enabled) {
+            row.setEnabled(enabled);
+        }
+    }
 
-            fireSelectionChanged(item, selected);
+    // Row at a position of a data source, which page isn't loaded yet. It has no item.
+    private static class PlaceholderRow<T> extends Row<T> {
+        private PlaceholderRow() {
+            super(null);
         }
+    }
 
-        if (selected && (selectionMode == SelectionMode.SINGLE)) {
-            for (Row<T> anotherRow : this.rows) {
-                if (rows.contains(anotherRow)) {
-                    continue;
-                }
+    // Row at a position of compact storage, its state is read from and written to the storage.
+    // Rows at the same position are equal, as the row objects are created on demand.
+    private static class CompactRow<T> extends Row<T> {
+        private final CompactRows<T, CellFactory<T, View>> storage;
+        private int index;
+        private int bindCount = 0;
 
-                if (!anotherRow.isSelected()) {
-                    continue;
-                }
+        private CompactRow(CompactRows<T, CellFactory<T, View>> storage, int index) {
+            super(null);
 
-                anotherRow.setSelected(false);
+            this.storage = storage;
+            this.index = index;
+        }
 
-                final int anotherRowIndex = shownRows.indexOf(anotherRow);
-                if (anotherRowIndex >= 0) {
-                    notifyItemChanged(anotherRowIndex, ChangeType.SELECTION);
-                    notifyNeighboursRedraw(anotherRowIndex, false);
-                }
-            }
+        // copies the state into the row, once its position is removed from the storage
+        private void detach() {
+            super.setData(storage.get(index));
+            super.setSelected(storage.isSelected(index));
+            super.setEnabled(storage.isEnabled(index));
+            super.setCustomCellFactory(storage.getFactory(index));
+            setId(storage.getId(index));
+
+            index = -1;
         }
-    }
 
-    private void notifyNeighboursRedraw(int rowIndex, boolean rowDeleted) {
-        if (rowIndex > 0) {
-            notifyItemChanged(rowIndex - 1, ChangeType.REDRAW);
+        private boolean isAttached() {
+            return index >= 0;
         }
 
-        int nextRowIndex = rowDeleted ? rowIndex : rowIndex + 1;
-        if (nextRowIndex < shownRows.size()) {
-            notifyItemChanged(nextRowIndex, ChangeType.REDRAW);
+        @Override
+        public T getData() {
+            return isAttached() ? storage.get(index) : super.getData();
         }
-    }
 
-    public void disableItem(T item) {
-        final List<Row<T>> itemRows = findRows(item);
-        final List<Integer> changedPositions = new ArrayList<>();
+        @Override
+        public void setData(T data) {
+            if (isAttached()) {
+                storage.set(index, data);
+            }
 
-        for (Row<T> row : itemRows) {
-            row.setEnabled(false);
+            super.setData(data);
+        }
 
-            if (row.isSelected()) {
-                row.setSelected(false);
+        @Override
+        public CellFactory<T, View> getCustomCellFactory() {
+            return isAttached() ? storage.getFactory(index) : super.getCustomCellFactory();
+        }
 
-                fireSelectionChanged(item, false);
+        @Override
+        public <V extends View> void setCustomCellFactory(CellFactory<T, V> customCellFactory) {
+            if (isAttached()) {
+                storage.setFactory(index, (CellFactory<T, View>) customCellFactory);
+            } else {
+                super.setCustomCellFactory(customCellFactory);
             }
+        }
+
+        @Override
+        public boolean isSelected() {
+            return isAttached() ? storage.isSelected(index) : super.isSelected();
+        }
 
-            final int index = shownRows.indexOf(row);
-            if (index >= 0) {
-                changedPositions.add(index);
+        @Override
+        public void setSelected(boolean selected) {
+            if (isAttached()) {
+                storage.setSelected(index, selected);
+            } else {
+                super.setSelected(selected);
             }
         }
 
-        for (Integer position : changedPositions) {
-            notifyItemChanged(position, ChangeType.ENABLE);
+        @Override
+        public boolean isEnabled() {
+            return isAttached() ? storage.isEnabled(index) : super.isEnabled();
         }
-    }
 
-    private List<Row<T>> findRows(T item) {
-        List<Row<T>> result = new ArrayList<>();
-        for (Row<T> row : rows) {
-            if (Objects.equal(row.getData(), item)) {
-                result.add(row);
+        @Override
+        public void setEnabled(boolean enabled) {
+            if (isAttached()) {
+                storage.setEnabled(index, enabled);
+            } else {
+                super.setEnabled(enabled);
             }
         }
-        return result;
-    }
 
-    private void fireDataAdded(final T item) {
-        for (DataListener<T> listener : dataListeners) {
-            listener.added(item);
+        @Override
+        public long getId() {
+            return isAttached() ? storage.getId(index) : super.getId();
         }
-    }
 
-    private void fireDataChanged(final T changedItem) {
-        for (DataListener<T> listener : dataListeners) {
-            listener.changed(changedItem);
-        }
-    }
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
 
-    private void fireDataRemoved(final T item) {
-        for (DataListener<T> listener : dataListeners) {
-            listener.removed(item);
+            if (!(o instanceof CompactRow)) {
+                return false;
+            }
+
+            final CompactRow<?> other = (CompactRow<?>) o;
+            return isAttached() && (index == other.index) && (storage == (Object) other.storage);
         }
-    }
 
-    private void fireSelectionChanged(final T item, final boolean selected) {
-        for (SelectionListener<T> listener : selectionListeners) {
-            listener.selectionChanged(item, selected);
+        @Override
+        public int hashCode() {
+            return isAttached() ? index : System.identityHashCode(this);
         }
     }
 
-    public void setCustomFactory(CellFactory<T, View> newFactory, int viewPosition) {
-        final int factoryId = customFactoryCounter.addAndGet(1);
-
-        final Row<T> row = shownRows.get(viewPosition);
-
-        final CellFactory<T, View> existingFactory = row.getCustomCellFactory();
+    private static class PrewarmIdleHandler implements MessageQueue.IdleHandler {
+        private final FactoryBasedAdapter<?> adapter;
+        private final RecyclerView recyclerView;
+        private final int viewType;
+        private int remaining;
 
+        private final Runnable wakeUp = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
 
-        if (existingFactory != null) {
-            customFactories.remove(existingFactory);
+        private PrewarmIdleHandler(FactoryBasedAdapter<?> adapter, RecyclerView recyclerView, int viewType, int count) {
+            this.adapter = adapter;
+            this.recyclerView = recyclerView;
+            this.viewType = viewType;
+            this.remaining = count;
         }
 
-        customFactories.put(newFactory, factoryId);
+        @Override
+        public boolean queueIdle() {
+            // the view type is gone, if the adapter was detached or its factory isn't used anymore
+            if ((recyclerView.getAdapter() != adapter) || (adapter.getFactory(viewType) == null)) {
+                return false;
+            }
 
-        row.setCustomCellFactory(newFactory);
+            final long deadline = SystemClock.uptimeMillis() + PREWARM_BUDGET_MILLIS;
+            do {
+                final ViewHolder holder = adapter.createViewHolder(recyclerView, viewType);
+                recyclerView.getRecycledViewPool().putRecycledView(holder);
+                remaining--;
+            } while ((remaining > 0) && (SystemClock.uptimeMillis() < deadline));
+
+            if (remaining > 0) {
+                // idle handlers are called once per idle period, a message starts the next one
+                adapter.mainHandler.post(wakeUp);
+                return true;
+            }
 
-        notifyItemChanged(viewPosition);
+            return false;
+        }
     }
 
-    private static class Row<T> {
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCommitCallback implements Choreographer.FrameCallback {
+        private final Runnable action;
 
-        private static long idCounter = 1;
-
-        private final Cell<T> cell;
-        private CellFactory<T, View> customCellFactory;
-        private final long id = idCounter++;
-
-        public Row(T data) {
-            this.cell = new Cell<>(data);
+        private FrameCommitCallback(Runnable action) {
+            this.action = action;
         }
 
-        public Cell<T> getCell() {
-            return cell;
+        private static void post(Runnable action) {
+            Choreographer.getInstance().postFrameCallback(new FrameCommitCallback(action));
         }
 
-        public void setData(T data) {
-            cell.setData(data);
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            action.run();
         }
+    }
 
-        public T getData() {
-            return cell.getData();
-        }
+    // one per view holder, rebound to the current row instead of allocating listeners on every bind
+    private static class RowBinding<T> implements
+            CellFactory.ChangeListener<T>, View.OnClickListener, View.OnLongClickListener {
 
-        public CellFactory<T, View> getCustomCellFactory() {
-            return customCellFactory;
-        }
+        private final FactoryBasedAdapter<T> adapter;
+        private final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+        private Row<T> row;
 
-        public <V extends View> void setCustomCellFactory(CellFactory<T, V> customCellFactory) {
-            this.customCellFactory = (CellFactory<T, View>) customCellFactory;
+        private RowBinding(FactoryBasedAdapter<T> adapter) {
+            this.adapter = adapter;
         }
 
-        public boolean isSelected() {
-            return cell.isSelected();
+        @Override
+        public void onChange(T newValue) {
+            adapter.notifyDataChanged(newValue);
         }
 
+        @Override
         public void setSelected(boolean selected) {
-            cell.setSelected(selected);
+            adapter.setItemSelected(row.getData(), selected);
         }
 
-        public boolean isEnabled() {
-            return cell.isEnabled();
+        @Override
+        public void redraw(Cell<T> cell) {
+            adapter.notifyCellRedraw(cell);
         }
 
-        public void setEnabled(boolean enabled) {
-            cell.setEnabled(enabled);
+        @Override
+        public void onClick(View v) {
+            if (row != null) {
+                adapter.handleClick(row, adapter.clickListeners);
+            }
         }
 
-        public long getId() {
-            return id;
+        @Override
+        public boolean onLongClick(View v) {
+            return (row != null) && adapter.handleClick(row, adapter.longClickListeners);
         }
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
         private Cell cell;
-        private final CellFactory<Object, View> factory;
+        private CellFactory<Object, View> factory;
+        private RowBinding<?> binding;
 
         private <T> ViewHolder(View view, CellFactory<T, View> factory) {
             super(view);
@@ -685,6 +3431,10 @@ public class FactoryBasedAdapter<T>
             return (CellFactory<T, View>) factory;
         }
 
+        private <T> void setFactory(CellFactory<T, View> factory) {
+            this.factory = (CellFactory<Object, View>) factory;
+        }
+
         public <T> Cell<T> getCell() {
             return (Cell<T>) cell;
         }
@@ -702,10 +3452,32 @@ public class FactoryBasedAdapter<T>
         void changed(T changedItem);
     }
 
+    // Gets one call per batch or bulk operation instead of a call per item.
+    // Single item modifications outside of batches are still reported by DataListener methods.
+    public interface BatchDataListener<T> extends DataListener<T> {
+        void addedAll(List<T> items);
+
+        void removedAll(List<T> items);
+
+        void changedAll(List<T> items);
+    }
+
+    public interface DataSource<T> {
+        int getCount();
+
+        // called on a background thread, a thrown exception is logged and the page is requested again on its next bind
+        List<T> load(int offset, int limit);
+    }
+
     public interface SelectionListener<T> {
         void selectionChanged(T item, boolean selected);
     }
 
+    // Selection changes made in a batch or by one selection call are reported together.
+    public interface BatchSelectionListener<T> extends SelectionListener<T> {
+        void selectionChanged(Set<T> selected, Set<T> deselected);
+    }
+
     public interface ClickListener<T> {
         void itemClicked(T item);
     }
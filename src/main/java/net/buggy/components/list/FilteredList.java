@@ -0,0 +1,522 @@
+package net.buggy.components.list;
+
+
+import com.google.common.base.Predicate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Ordered list of elements, where each element can be shown or hidden.
+ * Backed by an implicit treap, so positional access, insertion, removal,
+ * showing/hiding a single element and mapping an element to its model or
+ * shown position take O(log n).
+ */
+class FilteredList<E extends FilteredList.Node> {
+
+    private static final Random random = new Random();
+
+    private Node root;
+
+    public int size() {
+        return size(root);
+    }
+
+    public int shownSize() {
+        return shownSize(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public E get(int index) {
+        checkIndex(index, size());
+
+        Node node = root;
+        while (true) {
+            final int leftSize = size(node.left);
+
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return cast(node);
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    public E getShown(int shownIndex) {
+        checkIndex(shownIndex, shownSize());
+
+        Node node = root;
+        while (true) {
+            final int leftShownSize = shownSize(node.left);
+
+            if (shownIndex < leftShownSize) {
+                node = node.left;
+            } else if (node.shown && (shownIndex == leftShownSize)) {
+                return cast(node);
+            } else {
+                shownIndex -= leftShownSize + (node.shown ? 1 : 0);
+                node = node.right;
+            }
+        }
+    }
+
+    public boolean contains(E element) {
+        final Node node = element;
+        return node.owner == this;
+    }
+
+    public boolean isShown(E element) {
+        final Node node = element;
+        return contains(element) && node.shown;
+    }
+
+    public int indexOf(E element) {
+        if (!contains(element)) {
+            return -1;
+        }
+
+        Node node = element;
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+
+            node = node.parent;
+        }
+
+        return index;
+    }
+
+    public int shownIndexOf(E element) {
+        if (!isShown(element)) {
+            return -1;
+        }
+
+        Node node = element;
+        int index = shownSize(node.left);
+        while (node.parent != null) {
+            final Node parent = node.parent;
+            if (node == parent.right) {
+                index += shownSize(parent.left) + (parent.shown ? 1 : 0);
+            }
+
+            node = parent;
+        }
+
+        return index;
+    }
+
+    public void add(int index, E element, boolean shown) {
+        if ((index < 0) || (index > size())) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        attach(element, shown);
+
+        final Node[] parts = split(root, index);
+        root = merge(merge(parts[0], element), parts[1]);
+        root.parent = null;
+    }
+
+    public void addAll(List<? extends E> elements, Predicate<? super E> filter) {
+        final Node appended = build(elements, filter);
+
+        root = merge(root, appended);
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    public void mergeSorted(
+            List<? extends E> sortedElements,
+            Comparator<? super E> comparator,
+            Predicate<? super E> filter) {
+
+        for (E element : sortedElements) {
+            final Node node = element;
+            node.shown = (filter == null) || filter.apply(element);
+        }
+
+        final List<E> existingElements = toList();
+        final List<E> result = new ArrayList<>(existingElements.size() + sortedElements.size());
+
+        int existingIndex = 0;
+        int newIndex = 0;
+        while ((existingIndex < existingElements.size()) && (newIndex < sortedElements.size())) {
+            final E existingElement = existingElements.get(existingIndex);
+            final E newElement = sortedElements.get(newIndex);
+
+            // existing elements go first on ties
+            if (comparator.compare(newElement, existingElement) < 0) {
+                result.add(newElement);
+                newIndex++;
+            } else {
+                result.add(existingElement);
+                existingIndex++;
+            }
+        }
+
+        result.addAll(existingElements.subList(existingIndex, existingElements.size()));
+        result.addAll(sortedElements.subList(newIndex, sortedElements.size()));
+
+        clear();
+        addAll(result, keepShownFilter());
+    }
+
+    public void sort(Comparator<? super E> comparator) {
+        final List<E> elements = toList();
+        Collections.sort(elements, comparator);
+
+        reorder(elements);
+    }
+
+    // elements must be the same as in the list, their shown flags are kept
+    public void reorder(List<? extends E> elements) {
+        if (elements.size() != size()) {
+            throw new IllegalArgumentException("Expected " + size() + " elements, got " + elements.size());
+        }
+
+        clear();
+        addAll(elements, keepShownFilter());
+    }
+
+    public void setAll(List<? extends E> elements, Predicate<? super E> filter) {
+        clear();
+
+        addAll(elements, filter);
+    }
+
+    public boolean remove(E element) {
+        if (!contains(element)) {
+            return false;
+        }
+
+        final Node node = element;
+        final Node parent = node.parent;
+        final Node replacement = merge(node.left, node.right);
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.left == node) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+
+        updateUpwards(parent);
+
+        detach(node);
+
+        return true;
+    }
+
+    public void setShown(E element, boolean shown) {
+        if (!contains(element)) {
+            throw new IllegalArgumentException("Element is not in the list");
+        }
+
+        final Node node = element;
+        if (node.shown == shown) {
+            return;
+        }
+
+        node.shown = shown;
+        updateUpwards(node);
+    }
+
+    public void filter(Predicate<? super E> filter) {
+        filter(root, filter);
+    }
+
+    public boolean[] getShownFlags() {
+        final boolean[] result = new boolean[size()];
+
+        int index = 0;
+        for (E element : toList()) {
+            final Node node = element;
+            result[index++] = node.shown;
+        }
+
+        return result;
+    }
+
+    public void setShownFlags(boolean[] shown) {
+        if (shown.length != size()) {
+            throw new IllegalArgumentException("Expected " + size() + " flags, got " + shown.length);
+        }
+
+        setShownFlags(root, 0, shown);
+    }
+
+    public void clear() {
+        final Deque<Node> stack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+        }
+
+        while (!stack.isEmpty()) {
+            final Node node = stack.pop();
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+
+            detach(node);
+        }
+
+        root = null;
+    }
+
+    public List<E> toList() {
+        return collect(false, false);
+    }
+
+    public List<E> shownToList() {
+        return collect(true, false);
+    }
+
+    public List<E> hiddenToList() {
+        return collect(false, true);
+    }
+
+    private List<E> collect(boolean shownOnly, boolean hiddenOnly) {
+        final int expectedSize = shownOnly
+                ? shownSize()
+                : (hiddenOnly ? size() - shownSize() : size());
+        final List<E> result = new ArrayList<>(expectedSize);
+
+        final Deque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while (true) {
+            // subtrees without matching elements are skipped entirely
+            while ((node != null)
+                    && (!shownOnly || (node.shownSize > 0))
+                    && (!hiddenOnly || (node.shownSize < node.size))) {
+                stack.push(node);
+                node = node.left;
+            }
+
+            if (stack.isEmpty()) {
+                break;
+            }
+
+            node = stack.pop();
+            if ((!shownOnly || node.shown) && (!hiddenOnly || !node.shown)) {
+                result.add(cast(node));
+            }
+
+            node = node.right;
+        }
+
+        return result;
+    }
+
+    private Predicate<E> keepShownFilter() {
+        return new Predicate<E>() {
+            @Override
+            public boolean apply(E element) {
+                final Node node = element;
+                return node.shown;
+            }
+        };
+    }
+
+    private void attach(Node node, boolean shown) {
+        if (node.owner != null) {
+            throw new IllegalArgumentException("Element is already in a list");
+        }
+
+        node.owner = this;
+        node.priority = random.nextInt();
+        node.shown = shown;
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        update(node);
+    }
+
+    private static void detach(Node node) {
+        node.owner = null;
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+    }
+
+    // linear treap construction, elements are pushed along the right spine
+    private Node build(List<? extends E> elements, Predicate<? super E> filter) {
+        final Deque<Node> rightSpine = new ArrayDeque<>();
+
+        for (E element : elements) {
+            final Node node = element;
+            attach(node, (filter == null) || filter.apply(element));
+
+            Node lastPopped = null;
+            while (!rightSpine.isEmpty() && (rightSpine.peek().priority < node.priority)) {
+                lastPopped = rightSpine.pop();
+                update(lastPopped);
+            }
+
+            node.left = lastPopped;
+            if (lastPopped != null) {
+                lastPopped.parent = node;
+            }
+
+            if (!rightSpine.isEmpty()) {
+                final Node parent = rightSpine.peek();
+                parent.right = node;
+                node.parent = parent;
+            }
+
+            rightSpine.push(node);
+        }
+
+        Node top = null;
+        while (!rightSpine.isEmpty()) {
+            top = rightSpine.pop();
+            update(top);
+        }
+
+        return top;
+    }
+
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+
+        final int leftSize = size(node.left);
+        if (count <= leftSize) {
+            final Node[] parts = split(node.left, count);
+            node.left = parts[1];
+            setParent(parts[1], node);
+            update(node);
+
+            setParent(parts[0], null);
+            node.parent = null;
+            return new Node[]{parts[0], node};
+
+        } else {
+            final Node[] parts = split(node.right, count - leftSize - 1);
+            node.right = parts[0];
+            setParent(parts[0], node);
+            update(node);
+
+            setParent(parts[1], null);
+            node.parent = null;
+            return new Node[]{node, parts[1]};
+        }
+    }
+
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            first.right.parent = first;
+            update(first);
+            return first;
+
+        } else {
+            second.left = merge(first, second.left);
+            second.left.parent = second;
+            update(second);
+            return second;
+        }
+    }
+
+    private void filter(Node node, Predicate<? super E> filter) {
+        if (node == null) {
+            return;
+        }
+
+        filter(node.left, filter);
+        filter(node.right, filter);
+
+        node.shown = (filter == null) || filter.apply(cast(node));
+        update(node);
+    }
+
+    private static void setShownFlags(Node node, int offset, boolean[] shown) {
+        if (node == null) {
+            return;
+        }
+
+        final int index = offset + size(node.left);
+
+        setShownFlags(node.left, offset, shown);
+        setShownFlags(node.right, index + 1, shown);
+
+        node.shown = shown[index];
+        update(node);
+    }
+
+    private static void updateUpwards(Node node) {
+        while (node != null) {
+            update(node);
+            node = node.parent;
+        }
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.shownSize = (node.shown ? 1 : 0) + shownSize(node.left) + shownSize(node.right);
+    }
+
+    private static void setParent(Node node, Node parent) {
+        if (node != null) {
+            node.parent = parent;
+        }
+    }
+
+    private static int size(Node node) {
+        return (node != null) ? node.size : 0;
+    }
+
+    private static int shownSize(Node node) {
+        return (node != null) ? node.shownSize : 0;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E cast(Node node) {
+        return (E) node;
+    }
+
+    abstract static class Node {
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int priority;
+        private int size;
+        private int shownSize;
+        private boolean shown;
+        private FilteredList<?> owner;
+    }
+}
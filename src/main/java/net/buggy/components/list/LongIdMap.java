@@ -0,0 +1,158 @@
+package net.buggy.components.list;
+
+
+import java.util.Arrays;
+
+/**
+ * Map from long ids to values, stored in two parallel arrays with linear probing.
+ * Takes a fraction of HashMap memory, as neither entries nor boxed keys are allocated.
+ * {@link #EMPTY_ID} can't be used as a key.
+ */
+class LongIdMap<V> {
+
+    static final long EMPTY_ID = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] ids;
+    private Object[] values;
+    private int size = 0;
+
+    LongIdMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long id) {
+        return get(id) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long id) {
+        checkId(id);
+
+        final int mask = ids.length - 1;
+        for (int slot = slotOf(id, mask); ids[slot] != EMPTY_ID; slot = (slot + 1) & mask) {
+            if (ids[slot] == id) {
+                return (V) values[slot];
+            }
+        }
+
+        return null;
+    }
+
+    public void put(long id, V value) {
+        checkId(id);
+
+        // load factor is kept at or below 1/2
+        if ((size + 1) * 2 > ids.length) {
+            resize(ids.length * 2);
+        }
+
+        final int mask = ids.length - 1;
+        int slot = slotOf(id, mask);
+        while (ids[slot] != EMPTY_ID) {
+            if (ids[slot] == id) {
+                values[slot] = value;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        ids[slot] = id;
+        values[slot] = value;
+        size++;
+    }
+
+    public void remove(long id) {
+        checkId(id);
+
+        final int mask = ids.length - 1;
+        int slot = slotOf(id, mask);
+        while (ids[slot] != id) {
+            if (ids[slot] == EMPTY_ID) {
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        // shift following entries of the probe chain back, instead of leaving a tombstone
+        int emptySlot = slot;
+        slot = (slot + 1) & mask;
+        while (ids[slot] != EMPTY_ID) {
+            final int home = slotOf(ids[slot], mask);
+
+            final boolean canMove = (emptySlot <= slot)
+                    ? ((home <= emptySlot) || (home > slot))
+                    : ((home <= emptySlot) && (home > slot));
+
+            if (canMove) {
+                ids[emptySlot] = ids[slot];
+                values[emptySlot] = values[slot];
+                emptySlot = slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        ids[emptySlot] = EMPTY_ID;
+        values[emptySlot] = null;
+        size--;
+    }
+
+    public void clear() {
+        if (ids.length > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(ids, EMPTY_ID);
+            Arrays.fill(values, null);
+        }
+
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldIds = ids;
+        final Object[] oldValues = values;
+
+        allocate(capacity);
+
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == EMPTY_ID) {
+                continue;
+            }
+
+            int slot = slotOf(oldIds[i], mask);
+            while (ids[slot] != EMPTY_ID) {
+                slot = (slot + 1) & mask;
+            }
+
+            ids[slot] = oldIds[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        Arrays.fill(ids, EMPTY_ID);
+        values = new Object[capacity];
+    }
+
+    private static int slotOf(long id, int mask) {
+        // ids may be sequential or hashes, mix them before masking
+        final long mixed = id * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private static void checkId(long id) {
+        if (id == EMPTY_ID) {
+            throw new IllegalArgumentException("Id " + EMPTY_ID + " is reserved");
+        }
+    }
+}
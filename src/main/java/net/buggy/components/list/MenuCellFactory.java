@@ -20,11 +20,14 @@ import net.buggy.components.R;
 import net.buggy.components.ViewUtils;
 
 import java.util.Arrays;
+import java.util.Set;
 
 
 public class MenuCellFactory extends CellFactory<MenuCellFactory.Item, LinearLayout> {
 
     private final int pressedColor;
+    // fillCell() of a subclass may show more than the data, so subclasses have to enable it themselves
+    private boolean partialUpdates = (getClass() == MenuCellFactory.class);
 
     public MenuCellFactory() {
         this(0x60000000);
@@ -34,6 +37,11 @@ public class MenuCellFactory extends CellFactory<MenuCellFactory.Item, LinearLay
         this.pressedColor = pressedColor;
     }
 
+    // When enabled, changes other than data changes don't refill the cell
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
     @Override
     public LinearLayout createEmptyCell(Context context, ViewGroup parent) {
         final LayoutInflater inflater = LayoutInflater.from(context);
@@ -70,6 +78,24 @@ public class MenuCellFactory extends CellFactory<MenuCellFactory.Item, LinearLay
         itemTextView.setText(text);
     }
 
+    @Override
+    public boolean updateCell(
+            Cell<Item> cell,
+            LinearLayout view,
+            CellContext<Item> cellContext,
+            Set<FactoryBasedAdapter.ChangeType> changes,
+            ChangeListener<Item> listener) {
+
+        // menu items don't render selection, enabled state or neighbours
+        return partialUpdates && !changes.contains(FactoryBasedAdapter.ChangeType.DATA);
+    }
+
+    @Override
+    public Object getViewTypeKey() {
+        // pressed color is applied on fill, so all menu cells are the same
+        return MenuCellFactory.class;
+    }
+
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private static Drawable getPressedRippleDrawable(int pressedColor) {
@@ -0,0 +1,277 @@
+package net.buggy.components.list;
+
+
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards update notifications to an adapter. While held, notifications are queued
+ * and dispatched on flush, with adjacent or overlapping ranges of the same kind merged.
+ * Changes queued after an insert or removal are shifted over the following structural
+ * update, so that a sequence like "insert, redraw neighbours, insert next to it" ends up
+ * as a single insert range.
+ */
+class NotificationDispatcher implements ListUpdateCallback {
+
+    private enum OpType {INSERT, REMOVE, MOVE, CHANGE, RESET}
+
+    private final RecyclerView.Adapter<?> adapter;
+
+    private final List<Op> pending = new ArrayList<>();
+    private int holdCount = 0;
+
+    NotificationDispatcher(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    public void hold() {
+        holdCount++;
+    }
+
+    public void flush() {
+        if (holdCount == 0) {
+            throw new IllegalStateException("Dispatcher is not held");
+        }
+
+        holdCount--;
+        if (holdCount > 0) {
+            return;
+        }
+
+        final List<Op> ops = new ArrayList<>(pending);
+        pending.clear();
+
+        for (Op op : ops) {
+            switch (op.type) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op.position, op.count);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op.position, op.count);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(op.position, op.count);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(op.position, op.count, op.payload);
+                    break;
+                case RESET:
+                    adapter.notifyDataSetChanged();
+                    break;
+            }
+        }
+    }
+
+    public boolean isHeld() {
+        return holdCount > 0;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        if (!isHeld()) {
+            adapter.notifyItemRangeInserted(position, count);
+            return;
+        }
+
+        if (isResetPending()) {
+            return;
+        }
+
+        final int structuralIndex = findLastStructuralOp();
+        if (structuralIndex >= 0) {
+            final Op last = pending.get(structuralIndex);
+
+            if ((last.type == OpType.INSERT)
+                    && (position >= last.position)
+                    && (position <= last.position + last.count)) {
+
+                shiftChangesOnInsert(structuralIndex + 1, position, count);
+                last.count += count;
+                return;
+            }
+        }
+
+        pending.add(new Op(OpType.INSERT, position, count, null));
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        if (!isHeld()) {
+            adapter.notifyItemRangeRemoved(position, count);
+            return;
+        }
+
+        if (isResetPending()) {
+            return;
+        }
+
+        final int structuralIndex = findLastStructuralOp();
+        if (structuralIndex >= 0) {
+            final Op last = pending.get(structuralIndex);
+
+            if ((last.type == OpType.REMOVE)
+                    && (last.position >= position)
+                    && (last.position <= position + count)) {
+
+                shiftChangesOnRemove(structuralIndex + 1, position, count);
+                last.position = position;
+                last.count += count;
+                return;
+            }
+        }
+
+        pending.add(new Op(OpType.REMOVE, position, count, null));
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        if (!isHeld()) {
+            adapter.notifyItemMoved(fromPosition, toPosition);
+            return;
+        }
+
+        if (isResetPending()) {
+            return;
+        }
+
+        pending.add(new Op(OpType.MOVE, fromPosition, toPosition, null));
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        if (count <= 0) {
+            return;
+        }
+
+        if (!isHeld()) {
+            adapter.notifyItemRangeChanged(position, count, payload);
+            return;
+        }
+
+        if (isResetPending()) {
+            return;
+        }
+
+        final int structuralIndex = findLastStructuralOp();
+        if (structuralIndex >= 0) {
+            final Op last = pending.get(structuralIndex);
+
+            // freshly inserted items are bound from scratch anyway
+            if ((last.type == OpType.INSERT)
+                    && (position >= last.position)
+                    && (position + count <= last.position + last.count)) {
+                return;
+            }
+        }
+
+        for (int i = pending.size() - 1; i > structuralIndex; i--) {
+            final Op change = pending.get(i);
+
+            if (!Objects.equal(change.payload, payload)) {
+                continue;
+            }
+
+            if ((position <= change.position + change.count) && (change.position <= position + count)) {
+                final int end = Math.max(change.position + change.count, position + count);
+                change.position = Math.min(change.position, position);
+                change.count = end - change.position;
+                return;
+            }
+        }
+
+        pending.add(new Op(OpType.CHANGE, position, count, payload));
+    }
+
+    public void onDataSetChanged() {
+        if (!isHeld()) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+
+        pending.clear();
+        pending.add(new Op(OpType.RESET, 0, 0, null));
+    }
+
+    private boolean isResetPending() {
+        return !pending.isEmpty() && (pending.get(0).type == OpType.RESET);
+    }
+
+    private int findLastStructuralOp() {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).type != OpType.CHANGE) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    // moves the insert in front of the changes starting at fromIndex
+    private void shiftChangesOnInsert(int fromIndex, int position, int count) {
+        for (int i = fromIndex; i < pending.size(); i++) {
+            final Op change = pending.get(i);
+
+            if (change.position >= position) {
+                change.position += count;
+
+            } else if (change.position + change.count > position) {
+                final int tailCount = change.position + change.count - position;
+                change.count = position - change.position;
+
+                i++;
+                pending.add(i, new Op(OpType.CHANGE, position + count, tailCount, change.payload));
+            }
+        }
+    }
+
+    // moves the removal in front of the changes starting at fromIndex
+    private void shiftChangesOnRemove(int fromIndex, int position, int count) {
+        final int removedEnd = position + count;
+
+        for (int i = fromIndex; i < pending.size(); i++) {
+            final Op change = pending.get(i);
+            final int changeEnd = change.position + change.count;
+
+            final int beforeCount = Math.max(0, Math.min(changeEnd, position) - change.position);
+            final int afterCount = Math.max(0, changeEnd - Math.max(change.position, removedEnd));
+
+            if (beforeCount + afterCount == 0) {
+                pending.remove(i);
+                i--;
+                continue;
+            }
+
+            if (change.position >= position) {
+                change.position = Math.max(change.position, removedEnd) - count;
+            }
+            change.count = beforeCount + afterCount;
+        }
+    }
+
+    private static class Op {
+        private final OpType type;
+        private int position;
+        private int count;
+        private final Object payload;
+
+        private Op(OpType type, int position, int count, Object payload) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+            this.payload = payload;
+        }
+    }
+}
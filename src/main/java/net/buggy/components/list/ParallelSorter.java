@@ -0,0 +1,286 @@
+package net.buggy.components.list;
+
+
+import com.google.common.base.Function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sorts items by keys, which are extracted once per item. Lists over the threshold are split
+ * into chunks, sorted on the executor in parallel and merged by the chunk finishing last,
+ * so no executor thread waits for another one.
+ * <p>
+ * Besides the new order, calculates the moves turning the old shown order into the new one,
+ * when there are only a few of them.
+ */
+class ParallelSorter<T, K> {
+
+    static final int PARALLEL_THRESHOLD = 8192;
+    static final int MAX_MOVES = 64;
+
+    private final Function<T, K> keyFunction;
+    private final Comparator<Entry<K>> entryComparator;
+    private final Executor executor;
+
+    ParallelSorter(Function<T, K> keyFunction, final Comparator<? super K> keyComparator, Executor executor) {
+        this.keyFunction = keyFunction;
+        this.executor = executor;
+
+        // ties are resolved by the original index, so the sort is stable across chunks
+        this.entryComparator = new Comparator<Entry<K>>() {
+            @Override
+            public int compare(Entry<K> o1, Entry<K> o2) {
+                final int result = keyComparator.compare(o1.key, o2.key);
+                if (result != 0) {
+                    return result;
+                }
+
+                return o1.index - o2.index;
+            }
+        };
+    }
+
+    public void sort(final List<T> items, final boolean[] shown, final Callback callback) {
+        final int size = items.size();
+        final int chunksCount = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(),
+                size / PARALLEL_THRESHOLD));
+
+        final int[] bounds = new int[chunksCount + 1];
+        for (int i = 0; i <= chunksCount; i++) {
+            bounds[i] = (int) ((long) size * i / chunksCount);
+        }
+
+        final Entry<K>[] entries = new Entry[size];
+        final AtomicInteger remainingChunks = new AtomicInteger(chunksCount);
+
+        for (int i = 0; i < chunksCount; i++) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!callback.isCancelled()) {
+                        for (int index = from; index < to; index++) {
+                            entries[index] = new Entry<>(keyFunction.apply(items.get(index)), index);
+                        }
+
+                        Arrays.sort(entries, from, to, entryComparator);
+                    }
+
+                    if (remainingChunks.decrementAndGet() > 0) {
+                        return;
+                    }
+
+                    if (callback.isCancelled()) {
+                        return;
+                    }
+
+                    final Entry<K>[] sorted = merge(entries, bounds);
+                    callback.onSorted(createResult(sorted, shown));
+                }
+            });
+        }
+    }
+
+    private Entry<K>[] merge(Entry<K>[] entries, int[] bounds) {
+        Entry<K>[] source = entries;
+        Entry<K>[] target = new Entry[entries.length];
+        int[] runs = bounds;
+
+        while (runs.length > 2) {
+            final int[] mergedRuns = new int[runs.length / 2 + 1];
+
+            int mergedCount = 0;
+            for (int i = 0; i < runs.length - 1; i += 2) {
+                final int from = runs[i];
+                final int middle = runs[i + 1];
+                final int to = (i + 2 < runs.length) ? runs[i + 2] : middle;
+
+                mergeRuns(source, target, from, middle, to);
+                mergedRuns[mergedCount++] = from;
+            }
+            mergedRuns[mergedCount] = entries.length;
+
+            final Entry<K>[] swap = source;
+            source = target;
+            target = swap;
+            runs = mergedRuns;
+        }
+
+        return source;
+    }
+
+    private void mergeRuns(Entry<K>[] source, Entry<K>[] target, int from, int middle, int to) {
+        int left = from;
+        int right = middle;
+        int index = from;
+
+        while ((left < middle) && (right < to)) {
+            if (entryComparator.compare(source[right], source[left]) < 0) {
+                target[index++] = source[right++];
+            } else {
+                target[index++] = source[left++];
+            }
+        }
+
+        System.arraycopy(source, left, target, index, middle - left);
+        index += middle - left;
+        System.arraycopy(source, right, target, index, to - right);
+    }
+
+    private Result createResult(Entry<K>[] sorted, boolean[] shown) {
+        final Result result = new Result();
+
+        result.order = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            result.order[i] = sorted[i].index;
+        }
+
+        final int[] shownPositions = new int[shown.length];
+        int shownCount = 0;
+        for (int i = 0; i < shown.length; i++) {
+            shownPositions[i] = shown[i] ? shownCount++ : -1;
+        }
+
+        // old shown positions in the new order
+        final int[] sequence = new int[shownCount];
+        int sequenceIndex = 0;
+        for (int index : result.order) {
+            if (shown[index]) {
+                sequence[sequenceIndex++] = shownPositions[index];
+            }
+        }
+
+        final boolean[] staying = findLongestIncreasing(sequence);
+        int movesCount = 0;
+        for (boolean stays : staying) {
+            if (!stays) {
+                movesCount++;
+            }
+        }
+
+        if (movesCount <= MAX_MOVES) {
+            result.moves = calculateMoves(sequence, staying, movesCount);
+            result.redrawPositions = findChangedNeighbours(sequence);
+        }
+
+        return result;
+    }
+
+    private static boolean[] findLongestIncreasing(int[] sequence) {
+        final int[] tails = new int[sequence.length];
+        final int[] previous = new int[sequence.length];
+        int length = 0;
+
+        for (int i = 0; i < sequence.length; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (sequence[tails[middle]] < sequence[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            previous[i] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        final boolean[] result = new boolean[sequence.length];
+        for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result[i] = true;
+        }
+
+        return result;
+    }
+
+    // each moved element is put right after its new predecessor, elements in the
+    // increasing subsequence keep their relative order and don't move
+    private static int[] calculateMoves(int[] sequence, boolean[] staying, int movesCount) {
+        final int[] moves = new int[movesCount * 2];
+        if (movesCount == 0) {
+            return moves;
+        }
+
+        final List<Integer> current = new ArrayList<>(sequence.length);
+        for (int i = 0; i < sequence.length; i++) {
+            current.add(i);
+        }
+
+        int moveIndex = 0;
+        for (int i = 0; i < sequence.length; i++) {
+            if (staying[i]) {
+                continue;
+            }
+
+            final int from = current.indexOf(sequence[i]);
+            final Integer element = current.remove(from);
+            final int to = (i > 0) ? current.indexOf(sequence[i - 1]) + 1 : 0;
+            current.add(to, element);
+
+            moves[moveIndex++] = from;
+            moves[moveIndex++] = to;
+        }
+
+        return moves;
+    }
+
+    private static int[] findChangedNeighbours(int[] sequence) {
+        final int last = sequence.length - 1;
+
+        final int[] positions = new int[sequence.length];
+        int count = 0;
+        for (int i = 0; i < sequence.length; i++) {
+            final int oldPosition = sequence[i];
+
+            final int oldPrevious = (oldPosition > 0) ? oldPosition - 1 : -1;
+            final int oldNext = (oldPosition < last) ? oldPosition + 1 : -1;
+            final int newPrevious = (i > 0) ? sequence[i - 1] : -1;
+            final int newNext = (i < last) ? sequence[i + 1] : -1;
+
+            if ((oldPrevious != newPrevious) || (oldNext != newNext)) {
+                positions[count++] = i;
+            }
+        }
+
+        return Arrays.copyOf(positions, count);
+    }
+
+    interface Callback {
+        boolean isCancelled();
+
+        // called on an executor thread
+        void onSorted(Result result);
+    }
+
+    static class Result {
+        // old indices of the items in the sorted order
+        int[] order;
+        // (from, to) pairs of shown positions or null, if there are too many of them
+        int[] moves;
+        // shown positions, which got new neighbours
+        int[] redrawPositions;
+    }
+
+    private static class Entry<K> {
+        private final K key;
+        private final int index;
+
+        private Entry(K key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package net.buggy.components.list;
+
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.support.v7.widget.RecyclerView;
+import android.util.LruCache;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Draws headers of {@link FactoryBasedAdapter} sections above the first row of each section
+ * and keeps the header of the topmost section pinned to the top of the list.
+ * <p>
+ * Headers are not part of the adapter: each section header is rendered once into a bitmap,
+ * so scrolling neither inflates nor binds header views.
+ */
+public class SectionHeaderDecoration extends RecyclerView.ItemDecoration {
+
+    private static final int DEFAULT_CACHE_SIZE = 20;
+
+    private static final Object NULL_SECTION = new Object();
+
+    private final FactoryBasedAdapter<?> adapter;
+    private final HeaderFactory headerFactory;
+    private final LruCache<Object, Bitmap> headersCache;
+
+    // RecyclerView recalculates offsets of rebound rows. The adapter rebinds changed rows and their neighbours,
+    // which can become or stop being section starts, so offsets of other rows are kept.
+    private final RecyclerView.AdapterDataObserver dataObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            headersCache.evictAll();
+        }
+    };
+
+    private RecyclerView recyclerView;
+    private View headerView;
+    private int headerWidth = -1;
+
+    public SectionHeaderDecoration(FactoryBasedAdapter<?> adapter, HeaderFactory headerFactory) {
+        this(adapter, headerFactory, DEFAULT_CACHE_SIZE);
+    }
+
+    public SectionHeaderDecoration(FactoryBasedAdapter<?> adapter, HeaderFactory headerFactory, int cacheSize) {
+        this.adapter = adapter;
+        this.headerFactory = headerFactory;
+        this.headersCache = new LruCache<>(cacheSize);
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        if (this.recyclerView != null) {
+            throw new IllegalStateException("Decoration is already attached");
+        }
+
+        this.recyclerView = recyclerView;
+
+        recyclerView.addItemDecoration(this);
+        adapter.registerAdapterDataObserver(dataObserver);
+    }
+
+    public void detach() {
+        if (recyclerView == null) {
+            return;
+        }
+
+        adapter.unregisterAdapterDataObserver(dataObserver);
+        recyclerView.removeItemDecoration(this);
+
+        recyclerView = null;
+        headerView = null;
+        headersCache.evictAll();
+    }
+
+    // Should be called, when header content changes without changing section keys
+    public void invalidateHeaders() {
+        headersCache.evictAll();
+        invalidateDecorations();
+    }
+
+    @Override
+    public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
+        final int position = parent.getChildAdapterPosition(view);
+
+        final Bitmap header = getSectionStartHeader(parent, position);
+        if (header == null) {
+            outRect.set(0, 0, 0, 0);
+            return;
+        }
+
+        outRect.set(0, header.getHeight(), 0, 0);
+    }
+
+    @Override
+    public void onDrawOver(Canvas canvas, RecyclerView parent, RecyclerView.State state) {
+        final int childCount = parent.getChildCount();
+        if (childCount == 0) {
+            return;
+        }
+
+        final int left = parent.getPaddingLeft();
+        final int listTop = parent.getPaddingTop();
+
+        int firstPosition = RecyclerView.NO_POSITION;
+        boolean firstIsSectionStart = false;
+        Integer nextHeaderTop = null;
+
+        for (int i = 0; i < childCount; i++) {
+            final View child = parent.getChildAt(i);
+            final int position = parent.getChildAdapterPosition(child);
+            if (!isValidPosition(position)) {
+                continue;
+            }
+
+            final Bitmap header = getSectionStartHeader(parent, position);
+
+            if (firstPosition == RecyclerView.NO_POSITION) {
+                firstPosition = position;
+                firstIsSectionStart = (header != null);
+            }
+
+            if (header == null) {
+                continue;
+            }
+
+            final int headerTop = child.getTop() + (int) child.getTranslationY() - header.getHeight();
+            canvas.drawBitmap(header, left, headerTop, null);
+
+            if ((position != firstPosition) && (nextHeaderTop == null)) {
+                nextHeaderTop = headerTop;
+            }
+        }
+
+        if (firstPosition == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        final Bitmap pinnedHeader = getHeader(parent, adapter.getSection(firstPosition));
+        if (pinnedHeader == null) {
+            return;
+        }
+
+        // the section start header is already drawn in place, while it is fully visible
+        if (firstIsSectionStart) {
+            final View firstChild = findChild(parent, firstPosition);
+            if ((firstChild != null)
+                    && (firstChild.getTop() + (int) firstChild.getTranslationY() - pinnedHeader.getHeight() >= listTop)) {
+                return;
+            }
+        }
+
+        int pinnedTop = listTop;
+        if ((nextHeaderTop != null) && (nextHeaderTop < pinnedTop + pinnedHeader.getHeight())) {
+            pinnedTop = nextHeaderTop - pinnedHeader.getHeight();
+        }
+
+        canvas.drawBitmap(pinnedHeader, left, pinnedTop, null);
+    }
+
+    private boolean isValidPosition(int position) {
+        return (position != RecyclerView.NO_POSITION) && (position < adapter.getItemCount());
+    }
+
+    private Bitmap getSectionStartHeader(RecyclerView parent, int position) {
+        if (!isValidPosition(position) || !adapter.isSectionStart(position)) {
+            return null;
+        }
+
+        return getHeader(parent, adapter.getSection(position));
+    }
+
+    private View findChild(RecyclerView parent, int position) {
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            final View child = parent.getChildAt(i);
+            if (parent.getChildAdapterPosition(child) == position) {
+                return child;
+            }
+        }
+
+        return null;
+    }
+
+    private Bitmap getHeader(RecyclerView parent, Object section) {
+        final int width = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+        if (width <= 0) {
+            return null;
+        }
+
+        if (width != headerWidth) {
+            headersCache.evictAll();
+            headerWidth = width;
+        }
+
+        final Object cacheKey = (section != null) ? section : NULL_SECTION;
+
+        Bitmap header = headersCache.get(cacheKey);
+        if (header == null) {
+            header = renderHeader(parent, section, width);
+            headersCache.put(cacheKey, header);
+        }
+
+        return header;
+    }
+
+    private Bitmap renderHeader(RecyclerView parent, Object section, int width) {
+        if (headerView == null) {
+            headerView = headerFactory.createHeader(parent.getContext(), parent);
+        }
+
+        headerFactory.fillHeader(headerView, section);
+
+        headerView.measure(
+                View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        headerView.layout(0, 0, headerView.getMeasuredWidth(), headerView.getMeasuredHeight());
+
+        final Bitmap bitmap = Bitmap.createBitmap(
+                Math.max(headerView.getMeasuredWidth(), 1),
+                Math.max(headerView.getMeasuredHeight(), 1),
+                Bitmap.Config.ARGB_8888);
+        headerView.draw(new Canvas(bitmap));
+
+        return bitmap;
+    }
+
+    private void invalidateDecorations() {
+        final RecyclerView recyclerView = this.recyclerView;
+        if (recyclerView == null) {
+            return;
+        }
+
+        // offsets of rows, which became (or stopped being) section starts, have to be recalculated
+        if (recyclerView.isComputingLayout()) {
+            recyclerView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (SectionHeaderDecoration.this.recyclerView != null) {
+                        SectionHeaderDecoration.this.recyclerView.invalidateItemDecorations();
+                    }
+                }
+            });
+            return;
+        }
+
+        recyclerView.invalidateItemDecorations();
+    }
+
+    public interface HeaderFactory {
+        View createHeader(Context context, ViewGroup parent);
+
+        void fillHeader(View header, Object section);
+    }
+}
@@ -0,0 +1,128 @@
+package net.buggy.components.list;
+
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of selected elements, stored as a bitset over compact slots.
+ * A slot is assigned to an element when it gets selected for the first time
+ * and is recycled once the element is released.
+ */
+class SelectionModel<E extends SelectionModel.Slotted> {
+
+    private final BitSet selected = new BitSet();
+    private final List<E> elements = new ArrayList<>();
+    private int[] freeSlots = new int[16];
+    private int freeSlotsCount = 0;
+
+    private int selectedCount = 0;
+    private int lastSelectedSlot = -1;
+
+    public boolean isSelected(E element) {
+        final int slot = element.getSelectionSlot();
+        return (slot >= 0) && selected.get(slot);
+    }
+
+    public boolean setSelected(E element, boolean selected) {
+        if (isSelected(element) == selected) {
+            return false;
+        }
+
+        if (selected) {
+            int slot = element.getSelectionSlot();
+            if (slot < 0) {
+                slot = allocateSlot(element);
+            }
+
+            this.selected.set(slot);
+            selectedCount++;
+            lastSelectedSlot = slot;
+
+        } else {
+            this.selected.clear(element.getSelectionSlot());
+            selectedCount--;
+        }
+
+        return true;
+    }
+
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+
+    public List<E> getSelected() {
+        if (selectedCount == 0) {
+            return Collections.emptyList();
+        }
+
+        if ((selectedCount == 1) && selected.get(lastSelectedSlot)) {
+            return Collections.singletonList(elements.get(lastSelectedSlot));
+        }
+
+        final List<E> result = new ArrayList<>(selectedCount);
+        for (int slot = selected.nextSetBit(0); slot >= 0; slot = selected.nextSetBit(slot + 1)) {
+            result.add(elements.get(slot));
+        }
+
+        return result;
+    }
+
+    public void release(E element) {
+        final int slot = element.getSelectionSlot();
+        if (slot < 0) {
+            return;
+        }
+
+        if (selected.get(slot)) {
+            selected.clear(slot);
+            selectedCount--;
+        }
+
+        elements.set(slot, null);
+        element.setSelectionSlot(-1);
+
+        if (freeSlotsCount == freeSlots.length) {
+            final int[] newFreeSlots = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, newFreeSlots, 0, freeSlotsCount);
+            freeSlots = newFreeSlots;
+        }
+        freeSlots[freeSlotsCount++] = slot;
+    }
+
+    public void clear() {
+        for (E element : elements) {
+            if (element != null) {
+                element.setSelectionSlot(-1);
+            }
+        }
+
+        elements.clear();
+        selected.clear();
+        freeSlotsCount = 0;
+        selectedCount = 0;
+        lastSelectedSlot = -1;
+    }
+
+    private int allocateSlot(E element) {
+        final int slot;
+        if (freeSlotsCount > 0) {
+            slot = freeSlots[--freeSlotsCount];
+            elements.set(slot, element);
+        } else {
+            slot = elements.size();
+            elements.add(element);
+        }
+
+        element.setSelectionSlot(slot);
+        return slot;
+    }
+
+    interface Slotted {
+        int getSelectionSlot();
+
+        void setSelectionSlot(int slot);
+    }
+}
@@ -18,6 +18,8 @@ import android.widget.TextView;
 
 import net.buggy.components.R;
 
+import java.util.Arrays;
+
 import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
 
 public class SwipeToRemoveHandler extends ItemTouchHelper.SimpleCallback {
@@ -83,12 +85,16 @@ public class SwipeToRemoveHandler extends ItemTouchHelper.SimpleCallback {
             final DeletionCallback deletionCallback = new DeletionCallback(swipedPosition);
 
             activeRemovedCellFactory = new RemovedCellFactory(backgroundColor, foregroundColor, itemHeight, deletionCallback);
-            getAdapter().setCustomFactory(activeRemovedCellFactory, swipedPosition);
+            getAdapter().setCustomFactory(activeRemovedCellFactory, getAdapter().toShownPosition(swipedPosition));
 
             deletionHandler.onDelete(swipedPosition, deletionCallback);
 
         } else {
-            getAdapter().remove(swipedPosition);
+            final int shownPosition = getAdapter().toShownPosition(swipedPosition);
+            // the row can be already removed by a pending batch
+            if (shownPosition >= 0) {
+                getAdapter().remove(shownPosition);
+            }
         }
     }
 
@@ -249,8 +255,11 @@ public class SwipeToRemoveHandler extends ItemTouchHelper.SimpleCallback {
             activeRemovedCellFactory = null;
 
             getAdapter().unregisterAdapterDataObserver(observer);
-            getAdapter().setCustomFactory(null, viewPosition);
-            getAdapter().remove(viewPosition);
+            final int shownPosition = getAdapter().toShownPosition(viewPosition);
+            if (shownPosition >= 0) {
+                getAdapter().setCustomFactory(null, shownPosition);
+                getAdapter().remove(shownPosition);
+            }
         }
 
         public void askConfirmation(String text) {
@@ -263,7 +272,7 @@ public class SwipeToRemoveHandler extends ItemTouchHelper.SimpleCallback {
             activeRemovedCellFactory = null;
 
             getAdapter().unregisterAdapterDataObserver(observer);
-            getAdapter().setCustomFactory(null, viewPosition);
+            getAdapter().setCustomFactory(null, getAdapter().toShownPosition(viewPosition));
         }
     }
 
@@ -344,9 +353,21 @@ public class SwipeToRemoveHandler extends ItemTouchHelper.SimpleCallback {
                     final View child = view.getChildAt(i);
                     child.setVisibility(View.VISIBLE);
                 }
+
+            } else {
+                // the cell may be recycled from a confirmation of another swipe
+                for (int i = 0; i < view.getChildCount(); i++) {
+                    final View child = view.getChildAt(i);
+                    child.setVisibility(View.GONE);
+                }
             }
         }
 
+        @Override
+        public Object getViewTypeKey() {
+            return Arrays.asList(RemovedCellFactory.class, backgroundColor, itemHeight);
+        }
+
         public void setConfirmation(String text) {
             confirmationActive = true;
             confirmationText = text;
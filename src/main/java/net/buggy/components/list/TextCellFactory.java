@@ -13,6 +13,7 @@ import net.buggy.components.ViewUtils;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class TextCellFactory<T> extends CellFactory<T, TextView> {
 
@@ -21,6 +22,8 @@ public class TextCellFactory<T> extends CellFactory<T, TextView> {
     private final HorizontalAlignment horizontalAlignment;
     private Integer selectedBackgroundColor;
     private Integer selectedForegroundColor;
+    // fillCell() of a subclass may show more than the data, so subclasses have to enable it themselves
+    private boolean partialUpdates = (getClass() == TextCellFactory.class);
 
     private final Map<View, Drawable> replacedBackgrounds = new LinkedHashMap<>();
     private final Map<View, Integer> replacedTextColors = new LinkedHashMap<>();
@@ -41,6 +44,11 @@ public class TextCellFactory<T> extends CellFactory<T, TextView> {
         this.selectedForegroundColor = selectedForegroundColor;
     }
 
+    // When enabled, selection and enabled state changes are applied without calling fillCell()
+    public void setPartialUpdates(boolean partialUpdates) {
+        this.partialUpdates = partialUpdates;
+    }
+
     @Override
     public TextView createEmptyCell(Context context, ViewGroup parent) {
         final TextView view = ViewFactory.createTextView(context);
@@ -80,6 +88,27 @@ public class TextCellFactory<T> extends CellFactory<T, TextView> {
             view.setText(String.valueOf(data));
         }
 
+        fillState(cell, view);
+    }
+
+    @Override
+    public boolean updateCell(
+            Cell<T> cell,
+            TextView view,
+            CellContext<T> cellContext,
+            Set<FactoryBasedAdapter.ChangeType> changes,
+            ChangeListener<T> listener) {
+
+        if (!partialUpdates || changes.contains(FactoryBasedAdapter.ChangeType.DATA)) {
+            return false;
+        }
+
+        fillState(cell, view);
+
+        return true;
+    }
+
+    private void fillState(Cell<T> cell, TextView view) {
         if (!cell.isEnabled()) {
             setSelected(view, false);
             setDisabled(view, true);
@@ -0,0 +1,278 @@
+package net.buggy.components.list;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Case-insensitive substring index over texts of elements, based on trigrams.
+ * A query checks only the elements containing its rarest trigram, queries shorter
+ * than a trigram are checked against the stored texts directly.
+ * <p>
+ * The index holds about one int per character of the texts. Posting lists of shorter grams
+ * would triple that, while short queries usually match too many texts to gain much from them.
+ * <p>
+ * Removed and updated texts leave stale entries in the posting lists. They are filtered out
+ * by the final substring check and dropped, once they outnumber the live entries.
+ */
+class TextIndex<E extends TextIndex.Indexed> {
+
+    private static final int GRAM_LENGTH = 3;
+    private static final int MIN_COMPACTED_POSTINGS = 4096;
+
+    // trigrams are packed into 48 bits, so they never collide with LongIdMap.EMPTY_ID
+    private final LongIdMap<Postings> postings = new LongIdMap<>();
+
+    private String[] texts = new String[16];
+    private int[] gramCounts = new int[16];
+    private Object[] elements = new Object[16];
+    private int slotsCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeSlotsCount = 0;
+
+    private int livePostings = 0;
+    private int stalePostings = 0;
+
+    public void add(E element, String text) {
+        if (element.getTextSlot() >= 0) {
+            update(element, text);
+            return;
+        }
+
+        final int slot = allocateSlot(element);
+        indexText(slot, normalize(text));
+    }
+
+    public void update(E element, String text) {
+        final int slot = element.getTextSlot();
+        if (slot < 0) {
+            add(element, text);
+            return;
+        }
+
+        final String normalized = normalize(text);
+        if (normalized.equals(texts[slot])) {
+            return;
+        }
+
+        discardText(slot);
+        indexText(slot, normalized);
+
+        compactIfNeeded();
+    }
+
+    public void remove(E element) {
+        final int slot = element.getTextSlot();
+        if (slot < 0) {
+            return;
+        }
+
+        discardText(slot);
+        texts[slot] = null;
+        elements[slot] = null;
+        element.setTextSlot(-1);
+
+        if (freeSlotsCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotsCount++] = slot;
+
+        compactIfNeeded();
+    }
+
+    public void clear() {
+        for (int slot = 0; slot < slotsCount; slot++) {
+            if (elements[slot] != null) {
+                ((Indexed) elements[slot]).setTextSlot(-1);
+            }
+        }
+
+        postings.clear();
+        texts = new String[16];
+        gramCounts = new int[16];
+        elements = new Object[16];
+        slotsCount = 0;
+        freeSlotsCount = 0;
+        livePostings = 0;
+        stalePostings = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E getElement(int slot) {
+        return (E) elements[slot];
+    }
+
+    // Returns text slots of the elements, which contain the query
+    public BitSet search(String query) {
+        final String normalized = normalize(query);
+        final BitSet result = new BitSet(slotsCount);
+
+        if (normalized.length() < GRAM_LENGTH) {
+            for (int slot = 0; slot < slotsCount; slot++) {
+                if ((texts[slot] != null) && texts[slot].contains(normalized)) {
+                    result.set(slot);
+                }
+            }
+
+            return result;
+        }
+
+        Postings rarest = null;
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            final Postings gramPostings = postings.get(gramAt(normalized, i));
+            if (gramPostings == null) {
+                return result;
+            }
+
+            if ((rarest == null) || (gramPostings.size < rarest.size)) {
+                rarest = gramPostings;
+            }
+        }
+
+        for (int i = 0; i < rarest.size; i++) {
+            final int slot = rarest.slots[i];
+            if (result.get(slot)) {
+                continue;
+            }
+
+            // stale entries of updated and removed texts
+            final String text = texts[slot];
+            if ((text != null) && text.contains(normalized)) {
+                result.set(slot);
+            }
+        }
+
+        return result;
+    }
+
+    // Folds case char by char, independent of the default locale and without changing the length.
+    // Upper casing first also matches special lower case letters, like dotless i, to their plain ones.
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        char[] folded = null;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final char foldedChar = Character.toLowerCase(Character.toUpperCase(c));
+            if (foldedChar == c) {
+                continue;
+            }
+
+            if (folded == null) {
+                folded = text.toCharArray();
+            }
+            folded[i] = foldedChar;
+        }
+
+        return (folded != null) ? new String(folded) : text;
+    }
+
+    private void indexText(int slot, String text) {
+        texts[slot] = text;
+
+        final long[] grams = distinctGrams(text);
+        for (long gram : grams) {
+            Postings gramPostings = postings.get(gram);
+            if (gramPostings == null) {
+                gramPostings = new Postings();
+                postings.put(gram, gramPostings);
+            }
+
+            gramPostings.add(slot);
+        }
+
+        gramCounts[slot] = grams.length;
+        livePostings += grams.length;
+    }
+
+    // entries of the slot stay in the posting lists, until the index is compacted
+    private void discardText(int slot) {
+        livePostings -= gramCounts[slot];
+        stalePostings += gramCounts[slot];
+        gramCounts[slot] = 0;
+    }
+
+    private void compactIfNeeded() {
+        if ((stalePostings < MIN_COMPACTED_POSTINGS) || (stalePostings < livePostings)) {
+            return;
+        }
+
+        postings.clear();
+        livePostings = 0;
+        stalePostings = 0;
+
+        for (int slot = 0; slot < slotsCount; slot++) {
+            if (texts[slot] != null) {
+                indexText(slot, texts[slot]);
+            }
+        }
+    }
+
+    private int allocateSlot(E element) {
+        final int slot;
+        if (freeSlotsCount > 0) {
+            slot = freeSlots[--freeSlotsCount];
+        } else {
+            if (slotsCount == texts.length) {
+                texts = Arrays.copyOf(texts, slotsCount * 2);
+                gramCounts = Arrays.copyOf(gramCounts, slotsCount * 2);
+                elements = Arrays.copyOf(elements, slotsCount * 2);
+            }
+
+            slot = slotsCount++;
+        }
+
+        elements[slot] = element;
+        element.setTextSlot(slot);
+        return slot;
+    }
+
+    private static long[] distinctGrams(String text) {
+        final int count = text.length() - GRAM_LENGTH + 1;
+        if (count <= 0) {
+            return new long[0];
+        }
+
+        final long[] grams = new long[count];
+        for (int i = 0; i < count; i++) {
+            grams[i] = gramAt(text, i);
+        }
+        Arrays.sort(grams);
+
+        int distinctCount = 1;
+        for (int i = 1; i < count; i++) {
+            if (grams[i] != grams[distinctCount - 1]) {
+                grams[distinctCount++] = grams[i];
+            }
+        }
+
+        return (distinctCount == count) ? grams : Arrays.copyOf(grams, distinctCount);
+    }
+
+    private static long gramAt(String text, int index) {
+        return ((long) text.charAt(index) << 32)
+                | ((long) text.charAt(index + 1) << 16)
+                | text.charAt(index + 2);
+    }
+
+    interface Indexed {
+        int getTextSlot();
+
+        void setTextSlot(int slot);
+    }
+
+    private static class Postings {
+        private int[] slots = new int[4];
+        private int size = 0;
+
+        private void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+
+            slots[size++] = slot;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.buggy.components.list;
+
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns RecyclerView view types to cell factories. Factories with equal
+ * {@link CellFactory#getViewTypeKey()} get the same view type, so their cells are
+ * recycled for each other.
+ * <p>
+ * One registry can be passed to several adapters, which then also share its
+ * {@link RecyclerView.RecycledViewPool}. All of them should be used within the same context.
+ * <p>
+ * View types are reference counted and the registry keeps neither factories nor cells of a view type,
+ * once all its users released it. Released view types are never assigned again.
+ */
+public class ViewTypeRegistry {
+
+    private final Map<Object, Registration> registrationsByKey = new HashMap<>();
+    private final Map<Integer, Registration> registrationsByViewType = new HashMap<>();
+    private int nextViewType = 0;
+
+    private RecyclerView.RecycledViewPool recycledViewPool;
+
+    // Each call must be paired with releaseViewType()
+    public synchronized int acquireViewType(CellFactory<?, ? extends View> factory) {
+        final Object key = factory.getViewTypeKey();
+
+        Registration registration = registrationsByKey.get(key);
+        if (registration == null) {
+            registration = new Registration(key, nextViewType++);
+
+            registrationsByKey.put(key, registration);
+            registrationsByViewType.put(registration.viewType, registration);
+        }
+
+        registration.usages++;
+
+        return registration.viewType;
+    }
+
+    public synchronized void releaseViewType(int viewType) {
+        final Registration registration = registrationsByViewType.get(viewType);
+        if (registration == null) {
+            throw new IllegalArgumentException("Unknown view type: " + viewType);
+        }
+
+        registration.usages--;
+        if (registration.usages > 0) {
+            return;
+        }
+
+        registrationsByKey.remove(registration.key);
+        registrationsByViewType.remove(viewType);
+
+        if (recycledViewPool != null) {
+            // drops the cached cells of the view type
+            recycledViewPool.setMaxRecycledViews(viewType, 0);
+        }
+    }
+
+    public synchronized RecyclerView.RecycledViewPool getRecycledViewPool() {
+        if (recycledViewPool == null) {
+            recycledViewPool = new RecyclerView.RecycledViewPool();
+        }
+
+        return recycledViewPool;
+    }
+
+    private static class Registration {
+        private final Object key;
+        private final int viewType;
+        private int usages = 0;
+
+        private Registration(Object key, int viewType) {
+            this.key = key;
+            this.viewType = viewType;
+        }
+    }
+}
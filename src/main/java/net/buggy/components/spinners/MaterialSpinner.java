@@ -20,13 +20,13 @@ import android.util.SparseArray;
 import android.view.AbsSavedState;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.PopupWindow;
 import android.widget.TextView;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 
 import net.buggy.components.R;
 import net.buggy.components.ViewUtils;
@@ -35,10 +35,12 @@ import net.buggy.components.list.CellContext;
 import net.buggy.components.list.FactoryBasedAdapter;
 import net.buggy.components.list.ListDecorator;
 import net.buggy.components.list.TextCellFactory;
+import net.buggy.components.list.ViewTypeRegistry;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 
 import static android.widget.ListPopupWindow.WRAP_CONTENT;
 
@@ -47,6 +49,7 @@ public class MaterialSpinner<T> extends FrameLayout {
     private TextInputLayout textInputLayout;
     private T selectedItem;
     private FactoryBasedAdapter<T> listAdapter;
+    private RecyclerView recyclerView;
     private Function<T, String> stringConverter;
 
     private String nullString;
@@ -93,10 +96,11 @@ public class MaterialSpinner<T> extends FrameLayout {
         textField.setInputType(InputType.TYPE_NULL);
 
         final View popupContent = inflater.inflate(R.layout.material_spinner_popup, this, false);
-        final RecyclerView recyclerView = (RecyclerView) popupContent.findViewById(
-                R.id.material_spinner_popup_list);
+        recyclerView = (RecyclerView) popupContent.findViewById(R.id.material_spinner_popup_list);
         ListDecorator.decorateList(recyclerView);
         listAdapter = new FactoryBasedAdapter<>(new SpinnerCellFactory());
+        // keeps row ids stable, when the values are re-added on selection
+        listAdapter.setKeyFunction(Functions.<T>identity());
         listAdapter.setSorter(new Comparator<T>() {
             @Override
             public int compare(T o1, T o2) {
@@ -249,6 +253,13 @@ public class MaterialSpinner<T> extends FrameLayout {
         textInputLayout.setHintAnimationEnabled(hintAnimationEnabled);
     }
 
+    // Spinners sharing a registry reuse each other's popup cells, e.g. several spinners on one screen.
+    public void setViewTypeRegistry(ViewTypeRegistry viewTypeRegistry) {
+        recyclerView.setAdapter(null);
+        listAdapter.setViewTypeRegistry(viewTypeRegistry);
+        recyclerView.setAdapter(listAdapter);
+    }
+
     public void setHint(String hint) {
         textInputLayout.setHint(hint);
     }
@@ -302,25 +313,13 @@ public class MaterialSpinner<T> extends FrameLayout {
         }
     }
 
+    // Cells are created the same way by all spinners, as spinners sharing a registry recycle each other's cells
     private class SpinnerCellFactory extends TextCellFactory<T> {
 
-        private Typeface originalTypeface;
-
         public SpinnerCellFactory() {
             super(HorizontalAlignment.LEFT);
         }
 
-        @Override
-        public TextView createEmptyCell(Context context, ViewGroup parent) {
-            final TextView emptyCell = super.createEmptyCell(context, parent);
-
-            if (originalTypeface == null) {
-                originalTypeface = emptyCell.getTypeface();
-            }
-
-            return emptyCell;
-        }
-
         @Override
         public void fillCell(Cell<T> cell, TextView view, CellContext<T> cellContext, ChangeListener<T> listener) {
             final T value = cell.getData();
@@ -329,17 +328,34 @@ public class MaterialSpinner<T> extends FrameLayout {
 
             view.setText(valueString);
 
+            final int style;
             if (value == selectedItem) {
-                if (value == null) {
-                    view.setTypeface(originalTypeface, Typeface.BOLD_ITALIC);
-                } else {
-                    view.setTypeface(originalTypeface, Typeface.BOLD);
-                }
+                style = (value == null) ? Typeface.BOLD_ITALIC : Typeface.BOLD;
             } else if (value == null) {
-                view.setTypeface(originalTypeface, Typeface.ITALIC);
+                style = Typeface.ITALIC;
             } else {
-                view.setTypeface(originalTypeface, Typeface.NORMAL);
+                style = Typeface.NORMAL;
             }
+
+            // the family of the current typeface with the required style, the cell may come styled from another value
+            view.setTypeface(Typeface.create(view.getTypeface(), style), style);
+        }
+
+        @Override
+        public boolean updateCell(
+                Cell<T> cell,
+                TextView view,
+                CellContext<T> cellContext,
+                Set<FactoryBasedAdapter.ChangeType> changes,
+                ChangeListener<T> listener) {
+
+            // styling depends on selectedItem only, so always refill
+            return false;
+        }
+
+        @Override
+        public Object getViewTypeKey() {
+            return SpinnerCellFactory.class;
         }
     }
 }
@@ -0,0 +1,659 @@
+package net.buggy.components.list;
+
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.android.internal.util.Predicate;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Ordering;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FactoryBasedAdapterTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private FactoryBasedAdapter<String> adapter;
+    private final List<String> removedItems = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // like a real Handler, runnables posted to the main thread run only once the test lets them
+        ShadowLooper.pauseMainLooper();
+
+        adapter = new FactoryBasedAdapter<>(new StubCellFactory());
+        adapter.addDataListener(new FactoryBasedAdapter.DataListener<String>() {
+            @Override
+            public void added(String item) {
+            }
+
+            @Override
+            public void removed(String item) {
+                removedItems.add(item);
+            }
+
+            @Override
+            public void changed(String changedItem) {
+            }
+        });
+    }
+
+    @Test
+    public void removeByPositionInBatchUsesCurrentRows() {
+        adapter.addAll("a", "b", "c");
+
+        adapter.beginBatch();
+        assertEquals("a", adapter.remove(0));
+        assertEquals("b", adapter.remove(0));
+        assertEquals("c", adapter.getItem(0));
+
+        // RecyclerView isn't notified yet
+        assertEquals(3, adapter.getItemCount());
+        assertEquals(1, adapter.getShownItemCount());
+
+        adapter.commit();
+
+        assertEquals(1, adapter.getItemCount());
+        assertEquals(Collections.singletonList("c"), adapter.getAllItems());
+        assertEquals(Arrays.asList("a", "b"), removedItems);
+    }
+
+    @Test
+    public void bindDoesNotAllocate() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counting is supported by the JVM",
+                threadBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+
+        final int itemsCount = 1000;
+        final List<String> items = new ArrayList<>(itemsCount);
+        for (int i = 0; i < itemsCount; i++) {
+            items.add("item " + i);
+        }
+        adapter.addAll(items);
+
+        final FactoryBasedAdapter.ViewHolder holder = bind(0);
+        final View view = holder.itemView;
+        final List<Object> noPayloads = Collections.emptyList();
+
+        // cells are created on the first bind of each row, and the JIT has to settle
+        final int bindsCount = 100000;
+        for (int i = 0; i < bindsCount; i++) {
+            adapter.onBindViewHolder(holder, i % itemsCount, noPayloads);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+
+        // framework calls made by the binding allocate under Robolectric, they are not counted
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < bindsCount; i++) {
+            view.setOnClickListener(null);
+            view.setOnLongClickListener(null);
+        }
+        final long frameworkAllocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < bindsCount; i++) {
+            adapter.onBindViewHolder(holder, i % itemsCount, noPayloads);
+        }
+        final long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore - frameworkAllocated;
+
+        // a few bytes can come from the measurement itself
+        assertTrue("Binding allocated " + allocated + " bytes", allocated < bindsCount);
+    }
+
+    @Test
+    public void sortedInsertComparesLogarithmically() {
+        final int[] comparisons = {0};
+        final Comparator<String> countingSorter = new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                comparisons[0]++;
+                return first.compareTo(second);
+            }
+        };
+
+        for (int size : new int[]{10000, 100000}) {
+            adapter = new FactoryBasedAdapter<>(new StubCellFactory());
+            adapter.setSorter(countingSorter);
+
+            final List<String> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(String.format(Locale.US, "item %06d", i * 2));
+            }
+            adapter.addAll(items);
+
+            // a binary search over n rows takes at most log2(n) + 1 comparisons, a linear scan about n / 2
+            final int maxComparisons = 32 - Integer.numberOfLeadingZeros(size) + 1;
+
+            comparisons[0] = 0;
+            adapter.add(String.format(Locale.US, "item %06d", size + 1));
+            assertTrue(size + ": add compared " + comparisons[0] + " times", comparisons[0] <= maxComparisons);
+            assertEquals(size / 2 + 1, adapter.getAllItems().indexOf(String.format(Locale.US, "item %06d", size + 1)));
+
+            comparisons[0] = 0;
+            adapter.update(items.get(size / 4));
+            assertTrue(size + ": update compared " + comparisons[0] + " times", comparisons[0] <= maxComparisons);
+        }
+    }
+
+    @Test
+    public void heldCellContextKeepsItsCells() {
+        final List<CellContext<String>> contexts = new ArrayList<>();
+        adapter = new FactoryBasedAdapter<>(new StubCellFactory() {
+            @Override
+            public void fillCell(Cell<String> cell, View view, CellContext<String> cellContext, ChangeListener<String> listener) {
+                contexts.add(cellContext);
+            }
+        });
+        adapter.addAll("a", "b", "c");
+
+        final FactoryBasedAdapter.ViewHolder holder = bind(0);
+        adapter.bindViewHolder(holder, 1);
+        adapter.bindViewHolder(holder, 2);
+
+        assertEquals("a", contexts.get(0).getCell().getData());
+        assertEquals("b", contexts.get(0).getNextCell().getData());
+        assertEquals("b", contexts.get(1).getCell().getData());
+        assertEquals("a", contexts.get(1).getPrevCell().getData());
+        assertEquals("c", contexts.get(2).getCell().getData());
+        assertEquals(null, contexts.get(2).getNextCell());
+    }
+
+    @Test
+    public void mainThreadCallsApplyCallsPostedBefore() throws InterruptedException {
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.SINGLE);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                adapter.add("a");
+                adapter.selectItem("a");
+            }
+        });
+        thread.start();
+        thread.join();
+
+        adapter.add("b");
+        assertEquals(Arrays.asList("a", "b"), shownItems());
+        assertEquals(Collections.singletonList("a"), adapter.getSelectedItems());
+
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList("a", "b"), shownItems());
+    }
+
+    @Test
+    public void cellStateIsStoredInRow() {
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.MULTI);
+        adapter.add("a");
+        final Cell<String> cell = bind(0).getCell();
+
+        adapter.selectItem("a");
+        assertTrue(cell.isSelected());
+
+        cell.setEnabled(false);
+        assertEquals(Collections.<String>emptyList(), adapter.getSelectedItems());
+    }
+
+    @Test
+    public void cellSelectionGoesThroughAdapter() {
+        final List<String> events = new ArrayList<>();
+        adapter.addSelectionListener(new FactoryBasedAdapter.SelectionListener<String>() {
+            @Override
+            public void selectionChanged(String item, boolean selected) {
+                events.add(item + "=" + selected);
+            }
+        });
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.SINGLE);
+        adapter.addAll("a", "b");
+        final Cell<String> first = bind(0).getCell();
+        final Cell<String> second = bind(1).getCell();
+
+        first.setSelected(true);
+        assertEquals(Collections.singletonList("a"), adapter.getSelectedItems());
+
+        second.setSelected(true);
+        assertEquals(Collections.singletonList("b"), adapter.getSelectedItems());
+        assertFalse(first.isSelected());
+        assertEquals(1, adapter.getSelectedCount());
+
+        second.setSelected(false);
+        assertEquals(Collections.<String>emptyList(), adapter.getSelectedItems());
+        assertEquals(Arrays.asList("a=true", "b=true", "b=false"), events);
+    }
+
+    @Test
+    public void implicitDeselectionIsReportedToBatchListenersOnly() {
+        final List<String> plainEvents = new ArrayList<>();
+        final List<String> batchEvents = new ArrayList<>();
+        adapter.addSelectionListener(new FactoryBasedAdapter.SelectionListener<String>() {
+            @Override
+            public void selectionChanged(String item, boolean selected) {
+                plainEvents.add(item + "=" + selected);
+            }
+        });
+        adapter.addSelectionListener(new FactoryBasedAdapter.BatchSelectionListener<String>() {
+            @Override
+            public void selectionChanged(String item, boolean selected) {
+            }
+
+            @Override
+            public void selectionChanged(Set<String> selected, Set<String> deselected) {
+                batchEvents.add(selected + "-" + deselected);
+            }
+        });
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.SINGLE);
+        adapter.addAll("a", "b");
+
+        adapter.selectItem("a");
+        adapter.selectItem("b");
+
+        assertEquals(Arrays.asList("a=true", "b=true"), plainEvents);
+        assertEquals(Arrays.asList("[a]-[]", "[b]-[a]"), batchEvents);
+    }
+
+    @Test
+    public void sectionNeighboursAreRedrawnWhenNeighboursRedrawIsDisabled() {
+        final List<Integer> redrawnPositions = new ArrayList<>();
+        adapter.setRedrawNeighbours(false);
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.MULTI);
+        adapter.setSectionFunction(new Function<String, Object>() {
+            @Override
+            public Object apply(String item) {
+                return item.charAt(0);
+            }
+        });
+        adapter.addAll("apple", "banana");
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                if (payload == FactoryBasedAdapter.ChangeType.REDRAW) {
+                    redrawnPositions.add(positionStart);
+                }
+            }
+        });
+
+        // banana stops being a section start, once blueberry is inserted before it
+        adapter.add("blueberry", 1);
+        assertEquals(Arrays.asList(0, 2), redrawnPositions);
+
+        // selection doesn't change sections
+        redrawnPositions.clear();
+        adapter.selectItem("blueberry");
+        assertEquals(Collections.<Integer>emptyList(), redrawnPositions);
+    }
+
+    @Test
+    public void fragmentedFilterResultResetsList() {
+        final List<String> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            adapter.add(String.valueOf(i));
+        }
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                events.add("changed");
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                events.add("-" + positionStart + "x" + itemCount);
+            }
+        });
+
+        // a single range is dispatched as it is
+        adapter.narrowFilter(new Predicate<String>() {
+            @Override
+            public boolean apply(String item) {
+                return Integer.parseInt(item) < 50;
+            }
+        });
+        assertEquals(Collections.singletonList("-50x50"), events);
+
+        // every other row is one range each
+        events.clear();
+        adapter.narrowFilter(new Predicate<String>() {
+            @Override
+            public boolean apply(String item) {
+                return Integer.parseInt(item) % 2 == 0;
+            }
+        });
+        assertEquals(Collections.singletonList("changed"), events);
+        assertEquals(25, adapter.getItemCount());
+    }
+
+    @Test
+    public void coalescedNotificationsAreDispatchedOnNextFrame() {
+        final List<String> events = new ArrayList<>();
+        adapter.addAll("a", "b");
+        adapter.setCoalesceNotifications(true);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                events.add("+" + positionStart + "x" + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                events.add("-" + positionStart + "x" + itemCount);
+            }
+        });
+
+        adapter.add("c");
+        adapter.add("d");
+        adapter.remove("a");
+
+        // the adapter reports the current rows without waiting for the frame
+        assertEquals(Arrays.asList("b", "c", "d"), shownItems());
+        assertEquals(Collections.<String>emptyList(), events);
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(Arrays.asList("+2x2", "-0x1"), events);
+    }
+
+    @Test
+    public void compactStorageKeepsItemsAndSelection() {
+        adapter.setCompactStorage(true);
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.SINGLE);
+
+        adapter.addAll("a", "b", "c");
+        adapter.add("d", 1);
+        assertEquals(Arrays.asList("a", "d", "b", "c"), adapter.getAllItems());
+
+        adapter.selectItem("b");
+        adapter.selectItem("c");
+        assertEquals(Collections.singletonList("c"), adapter.getSelectedItems());
+        assertEquals(1, adapter.getSelectedCount());
+
+        assertEquals("a", adapter.remove(0));
+        adapter.remove("c");
+        adapter.update("d");
+
+        assertEquals(Arrays.asList("d", "b"), adapter.getAllItems());
+        assertEquals(0, adapter.getSelectedCount());
+        assertEquals(Arrays.asList("a", "c"), removedItems);
+    }
+
+    @Test
+    public void compactStorageBoundRowFollowsItsItem() {
+        adapter.setCompactStorage(true);
+        adapter.addAll("a", "b", "c");
+
+        final FactoryBasedAdapter.ViewHolder holder = bind(2);
+        final long id = adapter.getItemId(2);
+        final Cell<String> cell = holder.getCell();
+
+        adapter.remove("a");
+        assertEquals("c", cell.getData());
+        assertEquals(id, adapter.getItemId(1));
+
+        // stays the same cell, when bound again
+        adapter.bindViewHolder(holder, 1);
+        assertTrue(cell == holder.<String>getCell());
+
+        // removed rows keep their last state for holders, which are still bound
+        adapter.remove("c");
+        assertEquals("c", cell.getData());
+        adapter.onViewRecycled(holder);
+    }
+
+    @Test
+    public void compactStorageCellSelectionGoesThroughAdapter() {
+        adapter.setCompactStorage(true);
+        adapter.setSelectionMode(FactoryBasedAdapter.SelectionMode.SINGLE);
+        adapter.addAll("a", "b");
+        final Cell<String> first = bind(0).getCell();
+        final Cell<String> second = bind(1).getCell();
+
+        first.setSelected(true);
+        second.setSelected(true);
+
+        assertFalse(first.isSelected());
+        assertEquals(Collections.singletonList("b"), adapter.getSelectedItems());
+        assertEquals(1, adapter.getSelectedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compactStorageRejectsKeyFunction() {
+        adapter.setCompactStorage(true);
+        adapter.setKeyFunction(Functions.<String>identity());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compactStorageRejectsSorting() {
+        adapter.setCompactStorage(true);
+        adapter.setSorter(Ordering.<String>natural());
+    }
+
+    @Test
+    public void metricsSeparateFactoryClassesOfViewType() {
+        final CellMetrics metrics = new CellMetrics();
+        adapter = new FactoryBasedAdapter<>(new KeyedCellFactory());
+        adapter.setMetrics(metrics);
+        adapter.addAll("a", "b", "c");
+        adapter.setCustomFactory(new OtherKeyedCellFactory(), 1);
+        adapter.remove("c");
+
+        assertEquals(adapter.getItemViewType(0), adapter.getItemViewType(1));
+        bind(0);
+        bind(1);
+
+        final CellMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getFactories().size());
+        for (CellMetrics.FactoryStats stats : snapshot.getFactories()) {
+            assertEquals(1, stats.getFillCount());
+        }
+        assertEquals(3, snapshot.getInsertedItems());
+        assertEquals(1, snapshot.getRemovedItems());
+    }
+
+    @Test
+    public void dataSourcePagesAreLoadedForBoundPositions() {
+        final List<Integer> loadedOffsets = new ArrayList<>();
+        adapter.setDiffExecutor(DIRECT_EXECUTOR);
+        adapter.setDataSource(new FactoryBasedAdapter.DataSource<String>() {
+            @Override
+            public int getCount() {
+                return 100;
+            }
+
+            @Override
+            public List<String> load(int offset, int limit) {
+                loadedOffsets.add(offset);
+
+                // the source has fewer items than it reported
+                final List<String> items = new ArrayList<>();
+                for (int i = offset; i < Math.min(offset + limit, 25); i++) {
+                    items.add("item " + i);
+                }
+                return items;
+            }
+        }, new StubCellFactory(), 10, 4);
+
+        adapter.getItemViewType(0);
+        assertTrue(loadedOffsets.isEmpty());
+
+        // placeholders of different positions don't share cells
+        assertNotSame(bind(0).getCell(), bind(1).getCell());
+        bind(25);
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(Arrays.asList(0, 20), loadedOffsets);
+        assertEquals(25, adapter.getItemCount());
+        assertEquals("item 1", adapter.getItem(1));
+    }
+
+    @Test
+    public void failedPageIsRequestedAgainOnNextBind() {
+        final List<Integer> loadedOffsets = new ArrayList<>();
+        adapter.setDiffExecutor(DIRECT_EXECUTOR);
+        adapter.setDataSource(new FactoryBasedAdapter.DataSource<String>() {
+            @Override
+            public int getCount() {
+                return 20;
+            }
+
+            @Override
+            public List<String> load(int offset, int limit) {
+                loadedOffsets.add(offset);
+                if (loadedOffsets.size() == 1) {
+                    throw new IllegalStateException("Connection lost");
+                }
+
+                final List<String> items = new ArrayList<>();
+                for (int i = offset; i < offset + limit; i++) {
+                    items.add("item " + i);
+                }
+                return items;
+            }
+        }, new StubCellFactory(), 10, 4);
+
+        bind(0);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Collections.singletonList(0), loadedOffsets);
+        assertEquals(20, adapter.getItemCount());
+
+        bind(0);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList(0, 0), loadedOffsets);
+        assertEquals("item 0", adapter.getItem(0));
+    }
+
+    @Test
+    public void searchFollowsSetItems() {
+        adapter.setDiffExecutor(DIRECT_EXECUTOR);
+        adapter.addAll("apple", "banana", "cherry");
+        adapter.setSearchTextFunction(Functions.<String>identity());
+        adapter.setSearchQuery("an");
+        assertEquals(Collections.singletonList("banana"), shownItems());
+
+        adapter.setItems(Arrays.asList("mango", "cherry", "orange"));
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(Arrays.asList("mango", "orange"), shownItems());
+
+        adapter.setSearchQuery("e");
+        assertEquals(Arrays.asList("cherry", "orange"), shownItems());
+    }
+
+    @Test
+    public void setItemsStopsRestartingWhenItemsKeepChanging() {
+        final Queue<Runnable> tasks = deferDiffTasks();
+        adapter.addAll("a", "b");
+
+        adapter.setItems(Arrays.asList("x", "y"));
+        runTasksWhileItemsChange(tasks);
+
+        assertEquals(Arrays.asList("x", "y"), adapter.getAllItems());
+    }
+
+    @Test
+    public void asyncFilterStopsRestartingWhenItemsKeepChanging() {
+        final Queue<Runnable> tasks = deferDiffTasks();
+        adapter.addAll("a", "b");
+
+        adapter.setFilterAsync(new Predicate<String>() {
+            @Override
+            public boolean apply(String item) {
+                return item.equals("b");
+            }
+        });
+        runTasksWhileItemsChange(tasks);
+
+        assertEquals(Collections.singletonList("b"), shownItems());
+    }
+
+    private Queue<Runnable> deferDiffTasks() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        adapter.setDiffExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        return tasks;
+    }
+
+    // adds an item after each background task, so that every result is outdated once it's posted
+    private void runTasksWhileItemsChange(Queue<Runnable> tasks) {
+        for (int round = 0; !tasks.isEmpty(); round++) {
+            assertTrue("Restarted " + round + " times", round <= 10);
+
+            tasks.poll().run();
+            adapter.add("added " + round);
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    private List<String> shownItems() {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < adapter.getShownItemCount(); i++) {
+            items.add(adapter.getItem(i));
+        }
+
+        return items;
+    }
+
+    private FactoryBasedAdapter.ViewHolder bind(int position) {
+        final FactoryBasedAdapter.ViewHolder holder = adapter.createViewHolder(
+                new FrameLayout(RuntimeEnvironment.application), adapter.getItemViewType(position));
+        adapter.bindViewHolder(holder, position);
+
+        return holder;
+    }
+
+    private static class StubCellFactory extends CellFactory<String, View> {
+        @Override
+        public View createEmptyCell(Context context, ViewGroup parent) {
+            return new View(context);
+        }
+
+        @Override
+        public void fillCell(Cell<String> cell, View view, CellContext<String> cellContext, ChangeListener<String> listener) {
+        }
+    }
+
+    private static class KeyedCellFactory extends StubCellFactory {
+        @Override
+        public Object getViewTypeKey() {
+            return "stub";
+        }
+    }
+
+    private static class OtherKeyedCellFactory extends KeyedCellFactory {
+    }
+}
@@ -0,0 +1,128 @@
+package net.buggy.components.list;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextIndexTest {
+
+    private final TextIndex<Element> index = new TextIndex<>();
+
+    @Test
+    public void findsQueriesOfAnyLength() {
+        final Element first = add("Hello World");
+        final Element second = add("yellow");
+
+        assertFound("l", first, second);
+        assertFound("LL", first, second);
+        assertFound("ello", first, second);
+        assertFound("o w", first);
+        assertFound("wx");
+    }
+
+    @Test
+    public void updatedTextReplacesOldOne() {
+        final Element element = add("apple");
+
+        index.update(element, "pear");
+
+        assertFound("app");
+        assertFound("ea", element);
+    }
+
+    @Test
+    public void removedSlotIsReused() {
+        final Element removed = add("apple");
+        final Element kept = add("apricot");
+        final int slot = removed.getTextSlot();
+
+        index.remove(removed);
+        assertEquals(-1, removed.getTextSlot());
+        assertFound("ap", kept);
+
+        final Element added = add("banana");
+        assertEquals(slot, added.getTextSlot());
+        assertFound("ap", kept);
+        assertFound("an", added);
+    }
+
+    @Test
+    public void compactionKeepsLiveTexts() {
+        final List<Element> elements = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            elements.add(add("item " + i));
+        }
+
+        // enough stale postings to compact the index several times
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < elements.size(); i++) {
+                index.update(elements.get(i), "round " + round + " item " + i);
+            }
+        }
+
+        assertFound("round 49 item 42", elements.get(42));
+        assertFound("round 48");
+        assertEquals(100, index.search("item").cardinality());
+    }
+
+    @Test
+    public void normalizationIgnoresDefaultLocale() {
+        final Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr"));
+        try {
+            final Element element = add("TITLE");
+
+            assertEquals("title", TextIndex.normalize("TITLE"));
+            assertFound("tit", element);
+
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void clearResetsSlots() {
+        final Element element = add("apple");
+
+        index.clear();
+
+        assertEquals(-1, element.getTextSlot());
+        assertFound("a");
+    }
+
+    private Element add(String text) {
+        final Element element = new Element();
+        index.add(element, text);
+
+        return element;
+    }
+
+    private void assertFound(String query, Element... expected) {
+        final BitSet expectedSlots = new BitSet();
+        for (Element element : expected) {
+            expectedSlots.set(element.getTextSlot());
+        }
+
+        assertEquals(query, expectedSlots, index.search(query));
+    }
+
+    private static class Element implements TextIndex.Indexed {
+        private int textSlot = -1;
+
+        @Override
+        public int getTextSlot() {
+            return textSlot;
+        }
+
+        @Override
+        public void setTextSlot(int slot) {
+            this.textSlot = slot;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package net.buggy.components.list;
+
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class ViewTypeRegistryTest {
+
+    private final ViewTypeRegistry registry = new ViewTypeRegistry();
+
+    @Test
+    public void factoriesWithEqualKeysShareViewType() {
+        final int viewType = registry.acquireViewType(new KeyedCellFactory("text"));
+
+        assertEquals(viewType, registry.acquireViewType(new KeyedCellFactory("text")));
+        assertNotEquals(viewType, registry.acquireViewType(new KeyedCellFactory("image")));
+    }
+
+    @Test
+    public void viewTypeIsRetiredWhenReleasedByAllUsers() {
+        final int viewType = registry.acquireViewType(new KeyedCellFactory("text"));
+        registry.acquireViewType(new KeyedCellFactory("text"));
+
+        registry.releaseViewType(viewType);
+        assertEquals(viewType, registry.acquireViewType(new KeyedCellFactory("text")));
+
+        registry.releaseViewType(viewType);
+        registry.releaseViewType(viewType);
+        assertNotEquals(viewType, registry.acquireViewType(new KeyedCellFactory("text")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void releasingUnknownViewTypeFails() {
+        registry.releaseViewType(registry.acquireViewType(new KeyedCellFactory("text")) + 1);
+    }
+
+    @Test
+    public void adapterCreatesCellsWithItsOwnFactory() {
+        final KeyedCellFactory firstFactory = new KeyedCellFactory("text");
+        final KeyedCellFactory secondFactory = new KeyedCellFactory("text");
+
+        final FactoryBasedAdapter<String> firstAdapter = createAdapter(firstFactory);
+        final FactoryBasedAdapter<String> secondAdapter = createAdapter(secondFactory);
+
+        final int viewType = firstAdapter.getItemViewType(0);
+        assertEquals(viewType, secondAdapter.getItemViewType(0));
+
+        final FactoryBasedAdapter.ViewHolder holder = secondAdapter.createViewHolder(new FrameLayout(RuntimeEnvironment.application), viewType);
+        assertSame(secondFactory, holder.getFactory());
+    }
+
+    private FactoryBasedAdapter<String> createAdapter(KeyedCellFactory factory) {
+        final FactoryBasedAdapter<String> adapter = new FactoryBasedAdapter<>(factory);
+        adapter.setViewTypeRegistry(registry);
+        adapter.add("a");
+
+        return adapter;
+    }
+
+    private static class KeyedCellFactory extends CellFactory<String, View> {
+        private final String key;
+
+        private KeyedCellFactory(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public View createEmptyCell(Context context, ViewGroup parent) {
+            return new View(context);
+        }
+
+        @Override
+        public void fillCell(Cell<String> cell, View view, CellContext<String> cellContext, ChangeListener<String> listener) {
+        }
+
+        @Override
+        public Object getViewTypeKey() {
+            return key;
+        }
+    }
+}